@@ -3,6 +3,7 @@
 plugins {
   id("java")
   id("org.jetbrains.intellij.platform") version "2.5.0"
+  id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "org.intellij.sdk"
@@ -19,14 +20,44 @@ repositories {
 dependencies {
   intellijPlatform {
     intellijIdeaCommunity("2025.1.1")
+    // Optional at runtime, see sentra-java.xml
+    bundledPlugin("com.intellij.java")
   }
   implementation("com.fasterxml.jackson.core:jackson-databind:2.16.0")
+  implementation("com.fasterxml.jackson.dataformat:jackson-dataformat-smile:2.16.0")
 
   // Lombok at compile time only
   compileOnly("org.projectlombok:lombok:1.18.30") // or latest version
   annotationProcessor("org.projectlombok:lombok:1.18.30")
 }
 
+// Local stub backend and end-to-end benchmark harness, see src/bench
+val bench: SourceSet by sourceSets.creating {
+  compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+  runtimeClasspath += output + compileClasspath + sourceSets.main.get().runtimeClasspath
+}
+
+tasks.register<JavaExec>("stubServer") {
+  group = "benchmark"
+  description = "Runs the local stub Sentra backend. Pass options with --args, e.g. --args=\"--latency=fixed:200\"."
+  classpath = bench.runtimeClasspath
+  mainClass = "org.intellij.sdk.action.bench.StubSentraServer"
+}
+
+tasks.register<JavaExec>("benchmark") {
+  group = "benchmark"
+  description = "Runs UnitTestGenerator and BaseClassAttacher against the stub backend and reports throughput."
+  classpath = bench.runtimeClasspath
+  mainClass = "org.intellij.sdk.action.bench.BenchmarkHarness"
+  environment("API_BASE_URL", "http://localhost:18080/api/v1")
+}
+
+// Micro-benchmarks of CodeAnalyzerService, see src/jmh
+jmh {
+  profilers = listOf("gc")
+  resultFormat = "JSON"
+}
+
 intellijPlatform {
   buildSearchableOptions = false
 
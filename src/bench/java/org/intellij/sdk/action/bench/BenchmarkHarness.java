@@ -0,0 +1,215 @@
+package org.intellij.sdk.action.bench;
+
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProgressIndicator;
+import org.intellij.sdk.action.services.AdaptiveConcurrencyLimiter;
+import org.intellij.sdk.action.services.ApiService;
+import org.intellij.sdk.action.services.BaseClassAttacher;
+import org.intellij.sdk.action.services.HedgingPolicy;
+import org.intellij.sdk.action.services.UnitTestGenerator;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * End-to-end throughput benchmark of {@link UnitTestGenerator} and {@link BaseClassAttacher} against the
+ * {@link StubSentraServer}.
+ * <p>
+ * Run with {@code ./gradlew benchmark --args="--classes=20 --methods=30 --latency=lognormal:800:0.6"}. Options that
+ * are not recognised here are passed to the embedded stub. The harness only talks to a backend on localhost, taken
+ * from {@code API_BASE_URL}; the stub is started on that port unless {@code --external} is given.
+ */
+public class BenchmarkHarness {
+    private int classes = 20;
+    private int methods = 30;
+    private int depth = 2;
+    private int concurrency = 4;
+    private int runs = 2;
+    private boolean parallel = true;
+    private boolean bypassCache = false;
+    private boolean batching = false;
+    private boolean external = false;
+    private long seed = 42;
+    private final List<String> stubArgs = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkHarness harness = new BenchmarkHarness();
+        harness.parse(args);
+        harness.run();
+        System.exit(0);
+    }
+
+    private void parse(String[] args) {
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            String value = option.length > 1 ? option[1] : "true";
+            switch (option[0]) {
+                case "classes": classes = Integer.parseInt(value); break;
+                case "methods": methods = Integer.parseInt(value); break;
+                case "depth": depth = Integer.parseInt(value); break;
+                case "concurrency": concurrency = Integer.parseInt(value); break;
+                case "runs": runs = Integer.parseInt(value); break;
+                case "parallel": parallel = Boolean.parseBoolean(value); break;
+                case "batching": batching = Boolean.parseBoolean(value); break;
+                case "bypass-cache": bypassCache = Boolean.parseBoolean(value); break;
+                case "external": external = Boolean.parseBoolean(value); break;
+                case "seed": seed = Long.parseLong(value); break;
+                default: stubArgs.add(arg);
+            }
+        }
+    }
+
+    private void run() throws Exception {
+        URI baseUrl = URI.create(Objects.requireNonNullElse(System.getenv("API_BASE_URL"), ""));
+        if (!"localhost".equals(baseUrl.getHost()) && !"127.0.0.1".equals(baseUrl.getHost())) {
+            throw new IllegalStateException("API_BASE_URL must point at a local stub backend, got '" + baseUrl + "'");
+        }
+
+        Path workDir = Files.createTempDirectory("sentra-bench");
+        // Keeps the response caches of this run apart from the IDE's
+        System.setProperty("idea.system.path", workDir.resolve("system").toString());
+
+        StubSentraServer stub = null;
+        if (!external) {
+            List<String> options = new ArrayList<>(stubArgs);
+            options.add("--port=" + baseUrl.getPort());
+            stub = new StubSentraServer(StubSentraServer.Config.parse(options.toArray(new String[0])));
+            stub.start();
+        }
+
+        try {
+            SyntheticSourceTree tree = SyntheticSourceTree.generate(workDir.resolve("workspace"), classes, methods, depth, seed);
+            System.out.printf("Workspace %s: %d classes x %d methods, hierarchy depth %d, concurrency %d%n",
+                    tree.getRoot(), classes, methods, depth, concurrency);
+            for (int run = 1; run <= runs; run++) {
+                runOnce(run, tree, workDir.resolve("out-" + run)).print();
+            }
+            if (stub != null) {
+                System.out.println(stub.formatStats());
+            }
+        } finally {
+            if (stub != null) {
+                stub.stop();
+            }
+        }
+    }
+
+    private Result runOnce(int run, SyntheticSourceTree tree, Path outputDir) throws IOException {
+        Result result = new Result(run);
+        AtomicBoolean cancelToken = new AtomicBoolean(false);
+        ProgressIndicator progressIndicator = new EmptyProgressIndicator();
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        // One attacher per run, as in the plugin: leaves sharing a base class resolve it once
+        BaseClassAttacher baseClassAttacher = new BaseClassAttacher();
+
+        for (Path file : tree.getLeafFiles()) {
+            String content = Files.readString(file);
+
+            // Resolved alongside generation, as in the plugin
+            long hierarchyStart = System.nanoTime();
+            CompletableFuture<String> classContext = baseClassAttacher
+                    .attachBaseClass(tree.getRoot().toString(), content, "java", cancelToken, progressIndicator)
+                    .whenComplete((merged, e) -> result.hierarchyNanos.add(System.nanoTime() - hierarchyStart));
+
+            UnitTestGenerator generator = new UnitTestGenerator() {
+                @Override
+                public String generateAndSaveUnitTest(String key, String codeContent, String classContext, String functionName,
+                                                      String fileName, String generatedTests, ProgressIndicator indicator) {
+                    long functionStart = System.nanoTime();
+                    try {
+                        return super.generateAndSaveUnitTest(key, codeContent, classContext, functionName, fileName, generatedTests, indicator);
+                    } finally {
+                        result.functionNanos.add(System.nanoTime() - functionStart);
+                    }
+                }
+
+                @Override
+                public void generateAndSaveBatch(List<String> functionNames, List<String> codeContents, String classContext,
+                                                 String fileName, ProgressIndicator indicator) {
+                    long batchStart = System.nanoTime();
+                    try {
+                        super.generateAndSaveBatch(functionNames, codeContents, classContext, fileName, indicator);
+                    } finally {
+                        // Every function of the batch waited for all of it
+                        long batchNanos = System.nanoTime() - batchStart;
+                        functionNames.forEach(name -> result.functionNanos.add(batchNanos));
+                    }
+                }
+            };
+            generator.setProjectBaseDir(outputDir.toString());
+            generator.setParallel(parallel);
+            generator.setMaxConcurrency(concurrency);
+            generator.setBypassCache(bypassCache);
+            generator.setBatching(batching);
+            generator.doGenUnitTest(file.toString(), "java", content, content, classContext, cancelToken, progressIndicator);
+            result.failedFunctions += generator.getFailedFunctions().size();
+        }
+
+        result.wallNanos = System.nanoTime() - start;
+        result.allocatedBytes = allocatedBytes() - allocatedBefore;
+        return result;
+    }
+
+    /**
+     * Bytes allocated so far by every live thread except the stub's own request handlers.
+     */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (info != null && !info.getThreadName().startsWith("sentra-stub-")) {
+                total += Math.max(0, threads.getThreadAllocatedBytes(info.getThreadId()));
+            }
+        }
+        return total;
+    }
+
+    private static final class Result {
+        final int run;
+        final Queue<Long> functionNanos = new ConcurrentLinkedQueue<>();
+        final Queue<Long> hierarchyNanos = new ConcurrentLinkedQueue<>();
+        long wallNanos;
+        long allocatedBytes;
+        int failedFunctions;
+
+        Result(int run) {
+            this.run = run;
+        }
+
+        void print() {
+            int functions = functionNanos.size();
+            double seconds = wallNanos / 1e9;
+            System.out.printf("Run %d: %d functions in %.2f s, %.1f functions/s, %d failed%n", run, functions, seconds, functions / seconds, failedFunctions);
+            System.out.printf("  per function    p50 %8.1f ms  p99 %8.1f ms%n", percentile(functionNanos, 50), percentile(functionNanos, 99));
+            System.out.printf("  per hierarchy   p50 %8.1f ms  p99 %8.1f ms%n", percentile(hierarchyNanos, 50), percentile(hierarchyNanos, 99));
+            System.out.printf("  allocated       %.1f KB per function (%.1f MB total)%n",
+                    functions == 0 ? 0 : allocatedBytes / 1024.0 / functions, allocatedBytes / 1024.0 / 1024.0);
+            for (AdaptiveConcurrencyLimiter limiter : ApiService.getConcurrencyLimiters()) {
+                System.out.println("  limit           " + limiter);
+            }
+            for (HedgingPolicy hedging : ApiService.getHedgingPolicies()) {
+                System.out.println("  hedging         " + hedging);
+            }
+            System.out.println("  contexts        " + ApiService.getContextStore());
+        }
+
+        static double percentile(Collection<Long> samples, int percentile) {
+            if (samples.isEmpty()) {
+                return 0;
+            }
+            List<Long> sorted = new ArrayList<>(samples);
+            Collections.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+            return sorted.get(Math.max(0, index)) / 1e6;
+        }
+    }
+}
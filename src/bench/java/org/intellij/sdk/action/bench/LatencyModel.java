@@ -0,0 +1,61 @@
+package org.intellij.sdk.action.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Service time distribution of the stub backend, parsed from specs such as {@code fixed:50},
+ * {@code uniform:50:300}, {@code exp:200} or {@code lognormal:200:0.6} (median ms, sigma).
+ */
+public final class LatencyModel {
+    private final String kind;
+    private final double a;
+    private final double b;
+
+    private LatencyModel(String kind, double a, double b) {
+        this.kind = kind;
+        this.a = a;
+        this.b = b;
+    }
+
+    public static LatencyModel parse(String spec) {
+        String[] parts = spec.split(":");
+        String kind = parts[0].toLowerCase();
+        double a = parts.length > 1 ? Double.parseDouble(parts[1]) : 0;
+        double b = parts.length > 2 ? Double.parseDouble(parts[2]) : 0;
+        switch (kind) {
+            case "fixed":
+            case "exp":
+                return new LatencyModel(kind, a, 0);
+            case "uniform":
+                return new LatencyModel(kind, a, Math.max(a, b));
+            case "lognormal":
+                return new LatencyModel(kind, a, b > 0 ? b : 0.5);
+            default:
+                throw new IllegalArgumentException("Unknown latency distribution: " + spec);
+        }
+    }
+
+    public long sampleMillis() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double value;
+        switch (kind) {
+            case "uniform":
+                value = a + random.nextDouble() * (b - a);
+                break;
+            case "exp":
+                value = -a * Math.log(1 - random.nextDouble());
+                break;
+            case "lognormal":
+                value = a * Math.exp(b * random.nextGaussian());
+                break;
+            default:
+                value = a;
+        }
+        return Math.max(0, Math.round(value));
+    }
+
+    @Override
+    public String toString() {
+        return kind + ":" + a + (b != 0 ? ":" + b : "");
+    }
+}
@@ -0,0 +1,438 @@
+package org.intellij.sdk.action.bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for the Sentra backend implementing every endpoint of {@code ApiConfig.API_ENDPOINTS}.
+ * <p>
+ * Start it with {@code ./gradlew stubServer --args="--port=18080 --latency=lognormal:800:0.6"} and run the IDE or the
+ * benchmark harness with {@code API_BASE_URL=http://localhost:18080/api/v1}. Service time, error and throttling rates
+ * and the size of generated tests are configurable, see {@link Config}.
+ */
+public class StubSentraServer {
+    static final String API_PREFIX = "/api/v1";
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final ObjectMapper smileMapper = new SmileMapper();
+    private static final String SMILE = "application/x-jackson-smile";
+    private static final Pattern BASE_CLASS_PATTERN = Pattern.compile(
+            "class\\s+\\w+(?:<[^>{]*>)?\\s*(?:extends\\s+(\\w+)|:\\s*(\\w+)|\\(\\s*(\\w+)\\s*\\))");
+
+    private final Config config;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, EndpointStats> stats = new ConcurrentHashMap<>();
+    // hash -> uploaded class context, the least recently used dropped beyond Config.contextCapacity
+    private final Map<String, String> contexts;
+    // Modelled requests being served, for the capacity model
+    private final AtomicInteger modelledInFlight = new AtomicInteger();
+
+    public StubSentraServer(Config config) throws IOException {
+        this.config = config;
+        this.contexts = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return config.contextCapacity > 0 && size() > config.contextCapacity;
+            }
+        });
+        this.server = HttpServer.create(new InetSocketAddress(config.port), 512);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "sentra-stub-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+
+        route("/unit-test-results/generate_unit_test", true, this::generateUnitTest);
+        if (config.batchEndpoint) {
+            route("/unit-test-results/generate_unit_test_batch", true, this::generateUnitTestBatch);
+        }
+        route("/unit-test-results/extract_base_class", true, this::extractBaseClass);
+        route("/unit-test-results/merge_class", true, this::mergeClass);
+        if (config.sharedContext) {
+            route("/unit-test-results/context", false, this::uploadContext);
+        }
+        route("/user-tokens/register", false, request -> Response.text(201, "registered"));
+        route("/user-tokens/generate-token", false, request -> Response.text(201, newAccessToken()));
+        route("/user-tokens/do/check", false, request -> Response.text(200, "ok"));
+    }
+
+    public static void main(String[] args) throws IOException {
+        StubSentraServer stub = new StubSentraServer(Config.parse(args));
+        stub.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            stub.stop();
+            System.out.println(stub.formatStats());
+        }));
+        System.out.println("Stub Sentra backend listening on " + stub.getBaseUrl() + " (" + stub.config + ")");
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + API_PREFIX;
+    }
+
+    public Map<String, EndpointStats> getStats() {
+        return stats;
+    }
+
+    public String formatStats() {
+        StringBuilder result = new StringBuilder("Stub backend requests:\n");
+        new TreeMap<>(stats).forEach((endpoint, endpointStats) -> result.append(String.format(
+                "  %-40s %6d requests %5d errors %5d throttled %10d B in %10d B out%n",
+                endpoint, endpointStats.requests.get(), endpointStats.errors.get(), endpointStats.throttled.get(),
+                endpointStats.bytesIn.get(), endpointStats.bytesOut.get())));
+        return result.toString();
+    }
+
+    private void route(String path, boolean modelled, Handler handler) {
+        server.createContext(API_PREFIX + path, exchange -> handle(exchange, path, modelled, handler));
+    }
+
+    private void handle(HttpExchange exchange, String path, boolean modelled, Handler handler) throws IOException {
+        EndpointStats endpointStats = stats.computeIfAbsent(path, p -> new EndpointStats());
+        int load = modelled ? modelledInFlight.incrementAndGet() : 0;
+        try {
+            byte[] requestBody = exchange.getRequestBody().readAllBytes();
+            endpointStats.requests.incrementAndGet();
+            endpointStats.bytesIn.addAndGet(requestBody.length);
+            transfer(requestBody.length);
+            boolean gzipRequest = "gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            boolean smileRequest = contentType != null && contentType.startsWith(SMILE);
+
+            Response response;
+            if (gzipRequest && !config.gzip) {
+                response = Response.text(415, "Unsupported Content-Encoding");
+            } else if (smileRequest && !config.smile) {
+                response = Response.text(415, "Unsupported Content-Type");
+            } else if (modelled && config.requireAuth && exchange.getRequestHeaders().getFirst("Authorization") == null) {
+                response = Response.text(401, "Unauthorized");
+            } else if (config.maxRequestBytes > 0 && requestBody.length > config.maxRequestBytes) {
+                response = Response.text(413, "Payload Too Large");
+            } else if (config.capacity > 0 && load > 2 * config.capacity) {
+                // Far over capacity: shed the request right away
+                endpointStats.throttled.incrementAndGet();
+                response = Response.text(429, "Too Many Requests");
+                response.headers.put("Retry-After", Long.toString(config.retryAfterSeconds));
+            } else {
+                long serviceTime = modelled ? config.latency.sampleMillis() : config.authLatency.sampleMillis();
+                if (config.capacity > 0 && load > config.capacity) {
+                    // Over capacity: requests share the workers, each one takes proportionally longer
+                    serviceTime = serviceTime * load / config.capacity;
+                }
+                sleep(serviceTime);
+                double roll = ThreadLocalRandom.current().nextDouble();
+                if (modelled && roll < config.throttleRate) {
+                    endpointStats.throttled.incrementAndGet();
+                    response = Response.text(429, "Too Many Requests");
+                    response.headers.put("Retry-After", Long.toString(config.retryAfterSeconds));
+                } else if (modelled && roll < config.throttleRate + config.errorRate) {
+                    endpointStats.errors.incrementAndGet();
+                    response = Response.text(roll < config.throttleRate + config.errorRate / 2 ? 500 : 503, "Stub failure");
+                } else {
+                    if (gzipRequest) {
+                        requestBody = new GZIPInputStream(new ByteArrayInputStream(requestBody)).readAllBytes();
+                    }
+                    ObjectMapper requestMapper = smileRequest ? smileMapper : objectMapper;
+                    response = handler.handle(requestBody.length > 0 ? requestMapper.readTree(requestBody) : objectMapper.createObjectNode());
+                }
+            }
+
+            String accept = exchange.getRequestHeaders().getFirst("Accept");
+            if (config.smile && accept != null && accept.contains(SMILE) && response.contentType.equals("application/json")) {
+                response = response.smile();
+            }
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (config.gzip && acceptEncoding != null && acceptEncoding.contains("gzip") && response.body.length >= 1024) {
+                response = response.gzip();
+            }
+            transfer(response.body.length);
+            send(exchange, response);
+            endpointStats.bytesOut.addAndGet(response.body.length);
+        } catch (IOException | RuntimeException e) {
+            endpointStats.errors.incrementAndGet();
+            send(exchange, Response.text(400, String.valueOf(e.getMessage())));
+        } finally {
+            if (modelled) {
+                modelledInFlight.decrementAndGet();
+            }
+            exchange.close();
+        }
+    }
+
+    /**
+     * Holds the request for as long as {@code bytes} take over a link of {@link Config#bandwidthKbps}.
+     */
+    private void transfer(long bytes) {
+        if (config.bandwidthKbps > 0) {
+            sleep(bytes * 8 / config.bandwidthKbps);
+        }
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        response.headers.forEach((name, value) -> exchange.getResponseHeaders().set(name, value));
+        exchange.getResponseHeaders().set("Content-Type", response.contentType);
+        exchange.sendResponseHeaders(response.status, response.body.length == 0 ? -1 : response.body.length);
+        if (response.body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response.body);
+            }
+        }
+    }
+
+    private Response generateUnitTest(JsonNode request) throws IOException {
+        if (!hasContext(request)) {
+            return Response.text(409, "unknown_context");
+        }
+        String functionName = request.path("functionName").asText("function");
+        Map<String, String> body = new LinkedHashMap<>();
+        body.put("unit_test", syntheticUnitTest(functionName, config.unitTestBytes));
+        body.put("generated_tests", "test_" + functionName);
+        return Response.json(200, objectMapper.writeValueAsBytes(body));
+    }
+
+    private Response generateUnitTestBatch(JsonNode request) throws IOException {
+        if (!hasContext(request)) {
+            return Response.text(409, "unknown_context");
+        }
+        Map<String, Map<String, String>> results = new LinkedHashMap<>();
+        for (JsonNode function : request.path("functions")) {
+            // Each function after the first adds to the service time of the batch
+            if (!results.isEmpty()) {
+                sleep(config.batchItemLatency.sampleMillis());
+            }
+            String functionName = function.path("functionName").asText("function");
+            results.put(functionName, Map.of(
+                    "unit_test", syntheticUnitTest(functionName, config.unitTestBytes),
+                    "generated_tests", "test_" + functionName));
+        }
+        return Response.json(200, objectMapper.writeValueAsBytes(Map.of("results", results)));
+    }
+
+    private Response uploadContext(JsonNode request) throws IOException {
+        String content = request.path("content").asText("");
+        String hash;
+        try {
+            hash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        if (request.hasNonNull("hash") && !request.get("hash").asText().equals(hash)) {
+            return Response.text(400, "Content does not match its hash");
+        }
+        contexts.put(hash, content);
+        return Response.json(200, objectMapper.writeValueAsBytes(Map.of("hash", hash)));
+    }
+
+    /**
+     * Whether the context a request references, if any, is stored.
+     */
+    private boolean hasContext(JsonNode request) {
+        return !request.hasNonNull("classContextHash") || contexts.get(request.get("classContextHash").asText()) != null;
+    }
+
+    private Response extractBaseClass(JsonNode request) throws IOException {
+        Matcher matcher = BASE_CLASS_PATTERN.matcher(request.path("sourceCode").asText(""));
+        String baseClass = "N/A";
+        if (matcher.find()) {
+            baseClass = matcher.group(1) != null ? matcher.group(1) : matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+        }
+        return Response.json(200, objectMapper.writeValueAsBytes(Map.of("base_class", baseClass)));
+    }
+
+    private Response mergeClass(JsonNode request) throws IOException {
+        return Response.json(200, objectMapper.writeValueAsBytes(Map.of("mergedClass", request.path("sourceCode").asText(""))));
+    }
+
+    private String newAccessToken() {
+        long exp = System.currentTimeMillis() / 1000 + config.tokenTtlSeconds;
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString("{\"alg\":\"none\"}".getBytes(StandardCharsets.UTF_8))
+                + "." + encoder.encodeToString(("{\"exp\":" + exp + "}").getBytes(StandardCharsets.UTF_8))
+                + "." + encoder.encodeToString(UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String syntheticUnitTest(String functionName, int size) {
+        StringBuilder test = new StringBuilder(size + 128)
+                .append("class ").append(functionName).append("Test {\n")
+                .append("    @Test\n    void ").append(functionName).append("_returnsExpectedValue() {\n");
+        int line = 0;
+        while (test.length() < size) {
+            test.append("        assertEquals(").append(line).append(", subject.").append(functionName).append("(").append(line++).append("));\n");
+        }
+        return test.append("    }\n}\n").toString();
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static final class EndpointStats {
+        public final AtomicLong requests = new AtomicLong();
+        public final AtomicLong errors = new AtomicLong();
+        public final AtomicLong throttled = new AtomicLong();
+        public final AtomicLong bytesIn = new AtomicLong();
+        public final AtomicLong bytesOut = new AtomicLong();
+    }
+
+    static final class Response {
+        final int status;
+        final byte[] body;
+        final String contentType;
+        final Map<String, String> headers = new LinkedHashMap<>();
+
+        Response(int status, byte[] body, String contentType) {
+            this.status = status;
+            this.body = body;
+            this.contentType = contentType;
+        }
+
+        Response smile() throws IOException {
+            Response response = new Response(status, smileMapper.writeValueAsBytes(objectMapper.readTree(body)), SMILE);
+            response.headers.putAll(headers);
+            return response;
+        }
+
+        Response gzip() throws IOException {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+            try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+                out.write(body);
+            }
+            Response response = new Response(status, compressed.toByteArray(), contentType);
+            response.headers.putAll(headers);
+            response.headers.put("Content-Encoding", "gzip");
+            return response;
+        }
+
+        static Response json(int status, byte[] body) {
+            return new Response(status, body, "application/json");
+        }
+
+        static Response text(int status, String body) {
+            return new Response(status, body.getBytes(StandardCharsets.UTF_8), "text/plain; charset=utf-8");
+        }
+    }
+
+    @FunctionalInterface
+    interface Handler {
+        Response handle(JsonNode request) throws IOException;
+    }
+
+    /**
+     * Stub behaviour, set from {@code --name=value} arguments.
+     */
+    public static final class Config {
+        int port = 18080;
+        // Service time of the unit-test-results endpoints
+        LatencyModel latency = LatencyModel.parse("lognormal:800:0.6");
+        // Service time of the user-tokens endpoints
+        LatencyModel authLatency = LatencyModel.parse("fixed:5");
+        // Share of modelled requests answered with 500/503
+        double errorRate = 0;
+        // Share of modelled requests answered with 429
+        double throttleRate = 0;
+        long retryAfterSeconds = 1;
+        // Modelled requests served at full speed at once; beyond it they slow down, beyond twice it they get a 429.
+        // 0 for no limit
+        int capacity = 0;
+        // Service time each function after the first adds to a generate_unit_test_batch request
+        LatencyModel batchItemLatency = LatencyModel.parse("fixed:100");
+        // Without it the batch endpoint answers 404, as on a backend that predates it
+        boolean batchEndpoint = true;
+        // Larger request bodies are answered with 413, 0 for no limit
+        int maxRequestBytes = 0;
+        // Without it the context endpoint answers 404, as on a backend that predates it
+        boolean sharedContext = true;
+        // Uploaded contexts kept before the least recently used is forgotten, 0 for no limit
+        int contextCapacity = 0;
+        // Without it gzip request bodies are answered with 415 and responses are never compressed
+        boolean gzip = true;
+        // Without it Smile request bodies are answered with 415 and responses are always JSON
+        boolean smile = true;
+        // Link speed each request and response body is held back to, in kbit/s; 0 for no limit
+        long bandwidthKbps = 0;
+        // Approximate size of each generated unit test
+        int unitTestBytes = 4096;
+        long tokenTtlSeconds = 3600;
+        boolean requireAuth = false;
+
+        public static Config parse(String... args) {
+            Config config = new Config();
+            for (String arg : args) {
+                String[] option = arg.replaceFirst("^--", "").split("=", 2);
+                String value = option.length > 1 ? option[1] : "true";
+                switch (option[0]) {
+                    case "port": config.port = Integer.parseInt(value); break;
+                    case "latency": config.latency = LatencyModel.parse(value); break;
+                    case "auth-latency": config.authLatency = LatencyModel.parse(value); break;
+                    case "error-rate": config.errorRate = Double.parseDouble(value); break;
+                    case "throttle-rate": config.throttleRate = Double.parseDouble(value); break;
+                    case "retry-after": config.retryAfterSeconds = Long.parseLong(value); break;
+                    case "capacity": config.capacity = Integer.parseInt(value); break;
+                    case "batch-item-latency": config.batchItemLatency = LatencyModel.parse(value); break;
+                    case "batch-endpoint": config.batchEndpoint = Boolean.parseBoolean(value); break;
+                    case "max-request-bytes": config.maxRequestBytes = Integer.parseInt(value); break;
+                    case "shared-context": config.sharedContext = Boolean.parseBoolean(value); break;
+                    case "context-capacity": config.contextCapacity = Integer.parseInt(value); break;
+                    case "gzip": config.gzip = Boolean.parseBoolean(value); break;
+                    case "smile": config.smile = Boolean.parseBoolean(value); break;
+                    case "bandwidth": config.bandwidthKbps = Long.parseLong(value); break;
+                    case "unit-test-bytes": config.unitTestBytes = Integer.parseInt(value); break;
+                    case "token-ttl": config.tokenTtlSeconds = Long.parseLong(value); break;
+                    case "require-auth": config.requireAuth = Boolean.parseBoolean(value); break;
+                    default: throw new IllegalArgumentException("Unknown stub option: " + arg);
+                }
+            }
+            return config;
+        }
+
+        @Override
+        public String toString() {
+            return "latency=" + latency + ", error-rate=" + errorRate + ", throttle-rate=" + throttleRate
+                    + ", capacity=" + capacity + ", batch-item-latency=" + batchItemLatency + ", batch-endpoint=" + batchEndpoint
+                    + ", max-request-bytes=" + maxRequestBytes + ", shared-context=" + sharedContext + ", context-capacity=" + contextCapacity
+                    + ", gzip=" + gzip + ", smile=" + smile + ", bandwidth=" + bandwidthKbps
+                    + ", unit-test-bytes=" + unitTestBytes + ", require-auth=" + requireAuth;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.intellij.sdk.action.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes a reproducible Java source tree: a chain of {@code depth} abstract base classes and {@code classes}
+ * service classes extending the last one, each with {@code methods} methods of mixed size.
+ */
+public final class SyntheticSourceTree {
+    private final Path root;
+    private final List<Path> leafFiles = new ArrayList<>();
+
+    private SyntheticSourceTree(Path root) {
+        this.root = root;
+    }
+
+    public static SyntheticSourceTree generate(Path root, int classes, int methods, int depth, long seed) throws IOException {
+        SyntheticSourceTree tree = new SyntheticSourceTree(root);
+        Random random = new Random(seed);
+        Path sourceDir = root.resolve("src/main/java/com/example/generated");
+        Files.createDirectories(sourceDir);
+
+        String parent = null;
+        for (int level = 0; level < depth; level++) {
+            String name = level == 0 ? "AbstractRepository" : "BaseService" + level;
+            Files.writeString(sourceDir.resolve(name + ".java"), javaClass(name, parent, true, 4, random));
+            parent = name;
+        }
+        for (int i = 0; i < classes; i++) {
+            String name = "GeneratedService" + i;
+            Path file = sourceDir.resolve(name + ".java");
+            Files.writeString(file, javaClass(name, parent, false, methods, random));
+            tree.leafFiles.add(file);
+        }
+        return tree;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public List<Path> getLeafFiles() {
+        return leafFiles;
+    }
+
+    static String javaClass(String name, String parent, boolean isAbstract, int methods, Random random) {
+        StringBuilder source = new StringBuilder()
+                .append("package com.example.generated;\n\n")
+                .append("import java.util.List;\n")
+                .append("import java.util.Map;\n")
+                .append("import java.util.ArrayList;\n\n")
+                .append("public ").append(isAbstract ? "abstract " : "").append("class ").append(name)
+                .append(parent != null ? " extends " + parent : "").append(" {\n")
+                .append("    private final Map<String, Integer> counters = new java.util.HashMap<>();\n")
+                .append("    protected String label = \"").append(name).append("\";\n\n");
+
+        for (int m = 0; m < methods; m++) {
+            int shape = random.nextInt(4);
+            if (shape == 0) {
+                // Small getter, going through the base classes when there are any
+                source.append("    public String getLabel").append(m).append("() {\n")
+                        .append("        return ").append(parent != null ? "describe()" : "label").append(" + \"-").append(m).append("\";\n    }\n\n");
+            } else if (shape == 1) {
+                // Mapper with a lambda and a string containing braces
+                source.append("    public List<String> map").append(m).append("(List<Integer> values) {\n")
+                        .append("        List<String> result = new ArrayList<>();\n")
+                        .append("        values.forEach(v -> { if (v > ").append(m).append(") { result.add(\"{\" + v + \"}\"); } });\n")
+                        .append("        return result;\n    }\n\n");
+            } else {
+                // Longer method with nested control flow
+                source.append("    public int compute").append(m).append("(int input) {\n")
+                        .append("        int total = 0;\n");
+                int statements = 5 + random.nextInt(30);
+                for (int s = 0; s < statements; s++) {
+                    source.append("        if (input % ").append(s + 2).append(" == 0) {\n")
+                            .append("            for (int i = 0; i < ").append(s + 1).append("; i++) {\n")
+                            .append("                total += counters.getOrDefault(\"k").append(s).append("\", i);\n")
+                            .append("            }\n        }\n");
+                }
+                source.append("        return total;\n    }\n\n");
+            }
+        }
+        if (isAbstract) {
+            source.append("    protected String describe() {\n")
+                    .append("        return label;\n    }\n");
+        }
+        return source.append("}\n").toString();
+    }
+}
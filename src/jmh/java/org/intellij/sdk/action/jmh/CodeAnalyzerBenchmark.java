@@ -0,0 +1,64 @@
+package org.intellij.sdk.action.jmh;
+
+import org.intellij.sdk.action.services.CodeAnalyzerService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the {@link CodeAnalyzerService} extraction paths per language and file size.
+ * Run with {@code ./gradlew jmh}; the gc profiler adds the allocation rate ({@code gc.alloc.rate.norm}) per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+// Superlinear paths on the largest inputs should show up as a timeout rather than stalling the whole suite
+@Timeout(time = 60)
+public class CodeAnalyzerBenchmark {
+    @Param({"java", "cs", "py", "ts", "tsx"})
+    public String language;
+
+    @Param({"1024", "65536", "1048576", "5242880"})
+    public int size;
+
+    private String source;
+    private String className;
+    private String function;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        source = Corpora.source(language, size);
+        String classNameLine = CodeAnalyzerService.extractClassNameCodeLine(language, source);
+        className = classNameLine.isEmpty() ? "" : CodeAnalyzerService.extractClassName(language, classNameLine);
+        function = Corpora.function(language);
+    }
+
+    @Benchmark
+    public List<String> extractDependencies() {
+        return CodeAnalyzerService.extractDependencies(language, source);
+    }
+
+    @Benchmark
+    public String extractClassNameCodeLine() {
+        return CodeAnalyzerService.extractClassNameCodeLine(language, source);
+    }
+
+    @Benchmark
+    public List<String> extractCodeFunctions() {
+        return CodeAnalyzerService.extractCodeFunctions(language, className, source);
+    }
+
+    @Benchmark
+    public String extractFunctionName() {
+        return CodeAnalyzerService.extractFunctionName(language, function, "tsx".equals(language));
+    }
+
+    @Benchmark
+    public CodeAnalyzerService.Framework detectFramework() {
+        return CodeAnalyzerService.detectFramework(source);
+    }
+}
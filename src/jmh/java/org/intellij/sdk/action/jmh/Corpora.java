@@ -0,0 +1,123 @@
+package org.intellij.sdk.action.jmh;
+
+import java.util.Random;
+
+/**
+ * Synthetic source files used by the JMH benchmarks, grown to a target size by repeating members of varying shape.
+ */
+final class Corpora {
+    private Corpora() {
+    }
+
+    static String source(String language, int targetBytes) {
+        Random random = new Random(targetBytes);
+        StringBuilder source = new StringBuilder(targetBytes + 4096);
+        switch (language) {
+            case "java": return java(source, targetBytes, random);
+            case "cs": return csharp(source, targetBytes, random);
+            case "py": return python(source, targetBytes, random);
+            case "ts": return typescript(source, targetBytes, random);
+            case "tsx": return tsx(source, targetBytes, random);
+            default: throw new IllegalArgumentException(language);
+        }
+    }
+
+    /**
+     * A single function header and body of the given language, as handed to {@code extractFunctionName}.
+     */
+    static String function(String language) {
+        switch (language) {
+            case "java": return "public List<String> findAll(Map<String, Integer> filter) throws IOException {\n        return List.of();\n    }";
+            case "cs": return "public async Task<List<string>> FindAll(Dictionary<string, int> filter)\n    {\n        return new List<string>();\n    }";
+            case "py": return "def find_all(self, filter):\n        return []\n";
+            case "ts": return "findAll(filter: Map<string, number>): string[] {\n    return [];\n  }";
+            case "tsx": return "Counter = ({ initial }: Props) => {\n  const [count, setCount] = useState(initial);\n  return <div>{count}</div>;\n};";
+            default: throw new IllegalArgumentException(language);
+        }
+    }
+
+    private static String java(StringBuilder s, int target, Random random) {
+        s.append("package com.example;\n\nimport java.util.List;\nimport java.util.Map;\nimport java.io.IOException;\n\n")
+                .append("public class Generated extends AbstractRepository implements Service {\n")
+                .append("    private static final String TEMPLATE = \"{ not a block }\";\n\n");
+        for (int m = 0; s.length() < target; m++) {
+            s.append("    /** Handles case ").append(m).append(" { } */\n")
+                    .append("    public Map<String, List<Integer>> handle").append(m).append("(int input, String label) {\n")
+                    .append("        Map<String, List<Integer>> result = new java.util.HashMap<>();\n");
+            nestedBlocks(s, "        ", 1 + random.nextInt(5), "result.computeIfAbsent(label, k -> new java.util.ArrayList<>()).add(input);", "if (input > %d) {", "}");
+            s.append("        char brace = '}';\n        return result;\n    }\n\n");
+        }
+        return s.append("}\n").toString();
+    }
+
+    private static String csharp(StringBuilder s, int target, Random random) {
+        s.append("using System;\nusing System.Collections.Generic;\nusing System.Threading.Tasks;\n\n")
+                .append("public class Generated : BaseRepository\n{\n");
+        for (int m = 0; s.length() < target; m++) {
+            if (m % 5 == 0) {
+                s.append("    public int Value").append(m).append("() => _values[").append(m).append("];\n\n");
+                continue;
+            }
+            s.append("    public async Task<Dictionary<string, int>> Handle").append(m).append("(int input)\n    {\n")
+                    .append("        var result = new Dictionary<string, int>();\n");
+            nestedBlocks(s, "        ", 1 + random.nextInt(5), "result[$\"{input}\"] = input;", "if (input > %d) {", "}");
+            s.append("        var text = @\"verbatim \"\" } string\";\n        return await Task.FromResult(result);\n    }\n\n");
+        }
+        return s.append("}\n").toString();
+    }
+
+    private static String python(StringBuilder s, int target, Random random) {
+        s.append("import os\nfrom typing import List, Dict\n\n\nclass Generated(BaseRepository):\n");
+        for (int m = 0; s.length() < target; m++) {
+            s.append("    @staticmethod\n    def handle_").append(m).append("(value: int, label: str) -> Dict[str, int]:\n")
+                    .append("        \"\"\"Handles case ").append(m).append(".\n\n        def not_a_function(): pass\n        \"\"\"\n")
+                    .append("        result = {}\n");
+            int depth = 1 + random.nextInt(4);
+            String indent = "        ";
+            for (int d = 0; d < depth; d++) {
+                s.append(indent).append("if value > ").append(d).append(":\n");
+                indent += "    ";
+            }
+            s.append(indent).append("result[label] = value  # } {\n\n");
+            s.append("        return result\n\n");
+        }
+        return s.toString();
+    }
+
+    private static String typescript(StringBuilder s, int target, Random random) {
+        s.append("import { Injectable } from '@angular/core';\nimport { HttpClient } from '@angular/common/http';\n\n")
+                .append("@Injectable()\nexport class GeneratedService extends BaseService {\n");
+        for (int m = 0; s.length() < target; m++) {
+            s.append("  handle").append(m).append("(input: number, label: string): Map<string, number[]> {\n")
+                    .append("    const result = new Map<string, number[]>();\n");
+            nestedBlocks(s, "    ", 1 + random.nextInt(5), "result.set(`${label}-{}`, [input]);", "if (input > %d) {", "}");
+            s.append("    return result;\n  }\n\n");
+        }
+        return s.append("}\n").toString();
+    }
+
+    private static String tsx(StringBuilder s, int target, Random random) {
+        s.append("import React, { useState, useEffect } from \"react\";\n\n");
+        for (int c = 0; s.length() < target; c++) {
+            s.append("export const Component").append(c).append(" = ({ items }: Props) => {\n")
+                    .append("  const [count, setCount] = useState(0);\n")
+                    .append("  useEffect(() => { setCount(items.length); }, [items]);\n");
+            nestedBlocks(s, "  ", 1 + random.nextInt(3), "setCount(count + 1);", "if (count > %d) {", "}");
+            s.append("  return (\n    <div className=\"list\">\n      {items.map(item => <Item key={item.id} {...item} />)}\n    </div>\n  );\n};\n\n");
+        }
+        return s.toString();
+    }
+
+    private static void nestedBlocks(StringBuilder s, String indent, int depth, String statement, String open, String close) {
+        String current = indent;
+        for (int d = 0; d < depth; d++) {
+            s.append(current).append(String.format(open, d)).append('\n');
+            current += "    ";
+        }
+        s.append(current).append(statement).append('\n');
+        for (int d = depth - 1; d >= 0; d--) {
+            current = current.substring(4);
+            s.append(current).append(close).append('\n');
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.intellij.sdk.action.jmh;
+
+import org.intellij.sdk.action.dto.ApiResponse;
+import org.intellij.sdk.action.dto.ChunkedText;
+import org.intellij.sdk.action.services.JsonCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of encoding a {@code generate_unit_test} request and decoding its response as JSON and as Smile, per size of
+ * the source code and of the generated test. Run with {@code ./gradlew jmh}; the bytes each format puts on the wire
+ * are printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class WireFormatBenchmark {
+    @Param({"JSON", "SMILE"})
+    public JsonCodec.Format format;
+
+    @Param({"4096", "65536", "1048576"})
+    public int size;
+
+    private Map<String, String> payload;
+    private List<ByteBuffer> response;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        payload = new HashMap<>();
+        payload.put("key", "3f1c9a52-4b7e-4d8a-9e61-0c2b5d7f8a93");
+        payload.put("functionName", "findAll");
+        payload.put("sourceCode", Corpora.source("java", size));
+        payload.put("generatedTests", "");
+
+        ApiResponse apiResponse = new ApiResponse();
+        apiResponse.setUnitTest(ChunkedText.of(Corpora.source("java", size)));
+        apiResponse.setGeneratedTests("findAll_returnsExpectedValue");
+        response = new ArrayList<>();
+        for (byte[] chunk : JsonCodec.write(format, apiResponse)) {
+            response.add(ByteBuffer.wrap(chunk));
+        }
+
+        System.out.printf("%n%s, %d B of source: request %d B (%d B gzip), response %d B%n", format, size,
+                JsonCodec.size(JsonCodec.write(format, payload)), JsonCodec.size(JsonCodec.gzip(JsonCodec.write(format, payload))),
+                response.stream().mapToInt(ByteBuffer::remaining).sum());
+    }
+
+    @Benchmark
+    public List<byte[]> writeRequest() throws IOException {
+        return JsonCodec.write(format, payload);
+    }
+
+    @Benchmark
+    public ApiResponse readResponse() throws IOException {
+        return JsonCodec.read(response, format, false, ApiResponse.class);
+    }
+}
@@ -6,6 +6,7 @@ import com.intellij.openapi.actionSystem.ActionUpdateThread;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.actionSystem.CommonDataKeys;
+import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.module.Module;
@@ -20,12 +21,14 @@ import com.intellij.openapi.roots.SourceFolder;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.pom.Navigatable;
+import com.intellij.psi.PsiDocumentManager;
 import org.intellij.sdk.action.services.*;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -36,7 +39,6 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * But when added at runtime, this class is instantiated by an action group.
  */
 public class GenerateUtForAllFunctions extends AnAction {
-  private final AtomicBoolean cancelToken = new AtomicBoolean(false);
 
   @Override
   public @NotNull ActionUpdateThread getActionUpdateThread() {
@@ -93,32 +95,71 @@ public class GenerateUtForAllFunctions extends AnAction {
 
     String filePath = ActionService.getFilePath(event);
     String projectBaseDir = ActionService.getProjectBaseDir(event, fileType);
+    Document document = ActionService.getDocument(event);
     String workspaceRoot = ActionService.getWorkspaceRoot(event);
+    Project project = event.getProject();
+    VirtualFile virtualFile = ActionService.getVirtualFile(event);
+    if (project != null) {
+      // The PSI read in the background has to match what is in the editor
+      PsiDocumentManager.getInstance(project).commitAllDocuments();
+    }
+    // One job per run, so cancelling it leaves other and later runs alone
+    GenerationScheduler.Job job = GenerationScheduler.getInstance().newJob(project, GenerationScheduler.Priority.BULK, fullFileName);
+    AtomicBoolean cancelToken = job.getCancelToken();
+
+    UnitTestGenerator generator = new UnitTestGenerator();
 
-    ProgressManager.getInstance().run(new Task.Backgroundable(event.getProject(), "Generating unit tests") {
+    ProgressManager.getInstance().run(new Task.Backgroundable(project, "Generating unit tests") {
 
       @Override
       public void run(@NotNull ProgressIndicator progressIndicator) {
         try {
-          BaseClassAttacher baseClassAttacher = new BaseClassAttacher();
-          String fileContentWithBaseClass = String.valueOf(baseClassAttacher.attachBaseClass(workspaceRoot, fileContent, fileType, cancelToken, progressIndicator));
-          UnitTestGenerator generator = new UnitTestGenerator();
+          BaseClassAttacher baseClassAttacher = new BaseClassAttacher(project, job.executor());
+          generator.setJob(job);
           generator.setProjectBaseDir(projectBaseDir);
-          generator.doGenUnitTest(filePath, fileType, fileContent, fileContent, cancelToken, progressIndicator);
+          generator.setBypassCache(isBypassCache());
+          if (document != null && ("ts".equals(fileType) || "tsx".equals(fileType))) {
+            generator.setFramework(ReadAction.compute(() -> CodeAnalyzerService.detectFramework(document)));
+          }
+
+          // Reuse the IDE's parse tree when a provider exists for this language, the text analysis otherwise.
+          // The class hierarchy is resolved while functions are extracted and generated; only functions that use
+          // inherited members wait for it.
+          SourceModel model = SourceModelProvider.forFile(project, virtualFile);
+          if (model != null) {
+            CompletableFuture<String> classContext = baseClassAttacher.attachBaseClass(model, cancelToken, progressIndicator);
+            generator.doGenUnitTest(filePath, model, classContext, cancelToken, progressIndicator);
+            return;
+          }
+
+          CompletableFuture<String> classContext = baseClassAttacher.attachBaseClass(workspaceRoot, fileContent, fileType, cancelToken, progressIndicator);
+          generator.doGenUnitTest(filePath, fileType, fileContent, fileContent, classContext, cancelToken, progressIndicator);
         } catch (Exception ex) {
           Messages.showErrorDialog("Error during unit test generation: " + ex.getMessage(), "Error");
         }
       }
 
+      @Override
+      public void onSuccess() {
+        ActionService.showFailedFunctions(getProject(), title, generator.getFailedFunctions());
+      }
+
       @Override
       public void onCancel() {
         // Handle the cancellation action
-        cancelToken.set(true);
+        job.cancel();
         Messages.showInfoMessage("Task was canceled.", "Cancelled");
       }
     });
   }
 
+  /**
+   * Whether this run should ignore cached generate_unit_test responses and ask the server again.
+   */
+  protected boolean isBypassCache() {
+    return false;
+  }
+
   @Override
   public void update(AnActionEvent e) {
     // Set the availability based on whether a project is open
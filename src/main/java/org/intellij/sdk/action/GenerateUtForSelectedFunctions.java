@@ -6,6 +6,7 @@ import com.intellij.openapi.actionSystem.ActionUpdateThread;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.actionSystem.CommonDataKeys;
+import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.module.Module;
@@ -22,6 +23,7 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.pom.Navigatable;
 import org.intellij.sdk.action.services.ActionService;
 import org.intellij.sdk.action.services.CodeAnalyzerService;
+import org.intellij.sdk.action.services.GenerationScheduler;
 import org.intellij.sdk.action.services.TokenService;
 import org.intellij.sdk.action.services.UnitTestGenerator;
 import org.jetbrains.annotations.NotNull;
@@ -39,7 +41,6 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * But when added at runtime, this class is instantiated by an action group.
  */
 public class GenerateUtForSelectedFunctions extends AnAction {
-  private final AtomicBoolean cancelToken = new AtomicBoolean(false);
 
   @Override
   public @NotNull ActionUpdateThread getActionUpdateThread() {
@@ -97,24 +98,39 @@ public class GenerateUtForSelectedFunctions extends AnAction {
 
     String filePath = ActionService.getFilePath(event);
     String projectBaseDir = ActionService.getProjectBaseDir(event, fileType);
+    Document document = ActionService.getDocument(event);
+    // Interactive: its calls go out before those of bulk runs already queued
+    GenerationScheduler.Job job = GenerationScheduler.getInstance().newJob(event.getProject(), GenerationScheduler.Priority.INTERACTIVE, fullFileName);
+    AtomicBoolean cancelToken = job.getCancelToken();
+
+    UnitTestGenerator generator = new UnitTestGenerator();
 
     ProgressManager.getInstance().run(new Task.Backgroundable(event.getProject(), "Generating unit tests") {
 
       @Override
       public void run(@NotNull ProgressIndicator progressIndicator) {
         try {
-          UnitTestGenerator generator = new UnitTestGenerator();
+          generator.setJob(job);
           generator.setProjectBaseDir(projectBaseDir);
+          if (document != null && ("ts".equals(fileType) || "tsx".equals(fileType))) {
+            // Detected on the whole document, the selection usually lacks the imports
+            generator.setFramework(ReadAction.compute(() -> CodeAnalyzerService.detectFramework(document)));
+          }
           generator.doGenUnitTest(filePath, fileType, fileContent, selectedFunction, cancelToken, progressIndicator);
         } catch (Exception ex) {
           Messages.showErrorDialog("Error during unit test generation: " + ex.getMessage(), "Error");
         }
       }
 
+      @Override
+      public void onSuccess() {
+        ActionService.showFailedFunctions(getProject(), title, generator.getFailedFunctions());
+      }
+
       @Override
       public void onCancel() {
         // Handle the cancellation action
-        cancelToken.set(true);
+        job.cancel();
         Messages.showInfoMessage("Task was canceled.", "Cancelled");
       }
     });
@@ -0,0 +1,15 @@
+// Copyright 2000-2024 JetBrains s.r.o. and other contributors. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+
+package org.intellij.sdk.action;
+
+/**
+ * Same as {@link GenerateUtForAllFunctions}, but skips the on-disk response cache for this run
+ * and stores the fresh results in its place.
+ */
+public class RegenerateUtForAllFunctions extends GenerateUtForAllFunctions {
+
+  @Override
+  protected boolean isBypassCache() {
+    return true;
+  }
+}
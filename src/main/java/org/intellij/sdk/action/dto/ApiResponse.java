@@ -9,8 +9,9 @@ import lombok.Setter;
 @Getter
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class ApiResponse {
+    // Held in chunks and copied to its file from them, see ChunkedText
     @JsonProperty("unit_test")
-    private String unitTest;
+    private ChunkedText unitTest;
 
     @JsonProperty("generated_tests")
     private String generatedTests;
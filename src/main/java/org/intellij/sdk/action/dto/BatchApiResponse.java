@@ -0,0 +1,18 @@
+package org.intellij.sdk.action.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Map;
+
+@Setter
+@Getter
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class BatchApiResponse {
+    // functionName -> its unit test, for each function of the batch the server generated one for
+    @JsonProperty("results")
+    private Map<String, ApiResponse> results;
+
+}
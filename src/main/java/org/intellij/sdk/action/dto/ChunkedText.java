@@ -0,0 +1,189 @@
+package org.intellij.sdk.action.dto;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Text of a JSON string value too large to be worth holding as one {@link String}, such as a generated unit test.
+ * <p>
+ * It is kept in chunks of at most {@link #CHUNK} chars, copied straight from the parser's buffers, and written
+ * chunk by chunk to a file or back to JSON. None of that builds the whole text as a single string or array, so
+ * even a very long text never needs one large contiguous allocation.
+ */
+@JsonSerialize(using = ChunkedText.Serializer.class)
+@JsonDeserialize(using = ChunkedText.Deserializer.class)
+public final class ChunkedText {
+    private static final int CHUNK = 8192;
+
+    private final List<char[]> chunks;
+    private final int length;
+
+    private ChunkedText(List<char[]> chunks, int length) {
+        this.chunks = chunks;
+        this.length = length;
+    }
+
+    public static ChunkedText of(String text) {
+        ChunkWriter writer = new ChunkWriter();
+        writer.write(text, 0, text.length());
+        return writer.toText();
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Writes the text to {@code file} as UTF-8, replacing what it held.
+     */
+    public void writeTo(Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writeTo(writer);
+        }
+    }
+
+    public void writeTo(Writer writer) throws IOException {
+        int remaining = length;
+        for (char[] chunk : chunks) {
+            writer.write(chunk, 0, Math.min(chunk.length, remaining));
+            remaining -= chunk.length;
+        }
+    }
+
+    /**
+     * The whole text as one string, for callers that need it so.
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(length);
+        int remaining = length;
+        for (char[] chunk : chunks) {
+            text.append(chunk, 0, Math.min(chunk.length, remaining));
+            remaining -= chunk.length;
+        }
+        return text.toString();
+    }
+
+    private Reader reader() {
+        return new Reader() {
+            private int chunk;
+            private int offset;
+            private int remaining = length;
+
+            @Override
+            public int read(char[] buffer, int off, int len) {
+                if (remaining == 0) {
+                    return -1;
+                }
+                if (offset == chunks.get(chunk).length) {
+                    chunk++;
+                    offset = 0;
+                }
+                int count = Math.min(len, Math.min(remaining, chunks.get(chunk).length - offset));
+                System.arraycopy(chunks.get(chunk), offset, buffer, off, count);
+                offset += count;
+                remaining -= count;
+                return count;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Collects what is written to it into chunks.
+     */
+    private static final class ChunkWriter extends Writer {
+        private final List<char[]> chunks = new ArrayList<>();
+        private char[] current = new char[0];
+        private int used;
+        private int length;
+
+        @Override
+        public void write(char[] buffer, int off, int len) {
+            while (len > 0) {
+                if (used == current.length) {
+                    // Small texts get a chunk of their own size, larger ones grow to full chunks
+                    current = new char[Math.min(CHUNK, Math.max(len, 64))];
+                    chunks.add(current);
+                    used = 0;
+                }
+                int count = Math.min(len, current.length - used);
+                System.arraycopy(buffer, off, current, used, count);
+                used += count;
+                length += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        @Override
+        public void write(String text, int off, int len) {
+            char[] buffer = new char[Math.min(CHUNK, len)];
+            for (int end = off + len; off < end; off += buffer.length) {
+                int count = Math.min(buffer.length, end - off);
+                text.getChars(off, off + count, buffer, 0);
+                write(buffer, 0, count);
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        ChunkedText toText() {
+            // The last chunk is trimmed, so a text that fits one chunk holds no spare chars
+            if (used < current.length && !chunks.isEmpty()) {
+                chunks.set(chunks.size() - 1, Arrays.copyOf(current, used));
+            }
+            return new ChunkedText(chunks, length);
+        }
+    }
+
+    static final class Serializer extends JsonSerializer<ChunkedText> {
+        @Override
+        public void serialize(ChunkedText text, JsonGenerator generator, SerializerProvider serializers) throws IOException {
+            if (generator.canWriteBinaryNatively()) {
+                // Binary formats such as Smile cannot write a string from a Reader
+                generator.writeString(text.toString());
+            } else {
+                generator.writeString(text.reader(), text.length);
+            }
+        }
+    }
+
+    static final class Deserializer extends JsonDeserializer<ChunkedText> {
+        @Override
+        public ChunkedText deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            if (parser.currentToken() != JsonToken.VALUE_STRING) {
+                return of(parser.getValueAsString(""));
+            }
+            ChunkWriter writer = new ChunkWriter();
+            parser.getText(writer);
+            return writer.toText();
+        }
+    }
+}
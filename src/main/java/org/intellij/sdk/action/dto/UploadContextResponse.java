@@ -0,0 +1,16 @@
+package org.intellij.sdk.action.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+import lombok.Setter;
+
+@Setter
+@Getter
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class UploadContextResponse {
+    // SHA-256 of the uploaded content, as the server computed it
+    @JsonProperty("hash")
+    private String hash;
+
+}
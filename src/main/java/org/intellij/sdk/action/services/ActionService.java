@@ -15,6 +15,7 @@ import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.roots.ProjectRootManager;
 
+import java.util.Collection;
 import java.util.Objects;
 
 @Service
@@ -29,6 +30,20 @@ public class ActionService {
         return "";
     }
 
+    /**
+     * Tells the user which functions of a finished run got no test, if any. Call on the EDT.
+     */
+    public static void showFailedFunctions(Project project, String title, Collection<String> failedFunctions) {
+        if (failedFunctions.isEmpty()) {
+            return;
+        }
+        Messages.showWarningDialog(
+                project,
+                "Unit tests could not be generated for " + String.join(", ", failedFunctions)
+                        + ". Run the action again to retry them.",
+                title);
+    }
+
     public static String getFullCodeFile(AnActionEvent event) {
         Editor editor = event.getData(CommonDataKeys.EDITOR);
         if (editor == null) {
@@ -38,6 +53,11 @@ public class ActionService {
         return document.getText(); // This contains the full code of the file
     }
 
+    public static Document getDocument(AnActionEvent event) {
+        Editor editor = event.getData(CommonDataKeys.EDITOR);
+        return editor != null ? editor.getDocument() : null;
+    }
+
     public static String getFilePath(AnActionEvent event) {
         // Get the file associated with the current editor
         VirtualFile virtualFile = getVirtualFile(event);
@@ -0,0 +1,270 @@
+package org.intellij.sdk.action.services;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayDeque;
+
+/**
+ * Limit on the concurrent calls to one backend endpoint, adjusted from how the endpoint responds.
+ * <p>
+ * The limit follows the gradient of the round trip time: each response compares its RTT with a baseline, a low
+ * quantile of the recent RTTs. While the RTT stays within {@link #TOLERANCE} of the baseline the limit grows by about its square root,
+ * which leaves room for a small queue on the server, and as the RTT rises above it the limit shrinks by up to half.
+ * Changes are smoothed over several responses. The limit only grows while it is actually used, so a quiet endpoint
+ * does not build up a limit it never tested.
+ * <p>
+ * A 429, a 503 or a timeout halves the limit, once per round trip: the other calls that were already in flight when
+ * the first one failed do not halve it again. A {@code Retry-After} on those responses holds every new call back
+ * until it has passed.
+ * <p>
+ * Waiting callers are served in the order they came, so a call that got its {@link GenerationScheduler} slot first is
+ * not overtaken at the limiter by calls of lower priority that got theirs later.
+ * <p>
+ * The limit, the calls in flight and the callers waiting are exported as {@link ConcurrencyLimitMXBean}.
+ */
+public final class AdaptiveConcurrencyLimiter implements ConcurrencyLimitMXBean {
+    private static final Logger LOG = Logger.getInstance(AdaptiveConcurrencyLimiter.class);
+    // RTT up to this multiple of the baseline does not shrink the limit
+    private static final double TOLERANCE = 1.25;
+    // Share of the new estimate taken into the limit on each response
+    private static final double SMOOTHING = 0.2;
+    // The RTT baseline is this low quantile of the RTTs, what a request takes when it does not have to queue
+    private static final double BASELINE_QUANTILE = 0.1;
+    // Share of the baseline it moves by on each response
+    private static final double BASELINE_STEP = 0.05;
+    private static final double BACKOFF = 0.5;
+    // A longer Retry-After is most likely not meant for us, the next 429 will say again
+    private static final Duration MAX_RETRY_AFTER = Duration.ofMinutes(2);
+
+    private final String endpoint;
+    private final int minLimit;
+    private final int maxLimit;
+    // Guarded by this
+    private double limit;
+    private int inFlight;
+    // Callers waiting in acquire(), in the order they are served
+    private final ArrayDeque<Object> waiters = new ArrayDeque<>();
+    private double rttBaselineNanos;
+    private long lastBackoffNanos;
+    private long pausedUntilNanos;
+    private long drops;
+
+    public AdaptiveConcurrencyLimiter(String endpoint, int initialLimit, int minLimit, int maxLimit) {
+        this.endpoint = endpoint;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+        this.lastBackoffNanos = System.nanoTime();
+    }
+
+    /**
+     * Registers the limiter with the platform MBean server under {@code org.intellij.sdk.action:type=ConcurrencyLimit}.
+     */
+    public AdaptiveConcurrencyLimiter register() {
+        try {
+            ObjectName name = new ObjectName("org.intellij.sdk.action:type=ConcurrencyLimit,endpoint=" + ObjectName.quote(endpoint));
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            }
+        } catch (JMException | SecurityException e) {
+            LOG.debug("Failed to register the concurrency limit of " + endpoint, e);
+        }
+        return this;
+    }
+
+    /**
+     * Waits until a call may start. The returned permit must be given back with exactly one of its methods.
+     */
+    public Permit acquire() throws InterruptedIOException {
+        synchronized (this) {
+            Object waiter = new Object();
+            waiters.addLast(waiter);
+            try {
+                while (true) {
+                    long pause = pausedUntilNanos - System.nanoTime();
+                    if (pause > 0) {
+                        wait(Math.max(1, pause / 1_000_000));
+                    } else if (waiters.peekFirst() != waiter || inFlight >= (int) limit) {
+                        wait();
+                    } else {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to call " + endpoint);
+            } finally {
+                waiters.remove(waiter);
+                // The next in line may start too if there is room left, or take over if this one gave up
+                notifyAll();
+            }
+            inFlight++;
+            return new Permit(System.nanoTime(), inFlight);
+        }
+    }
+
+    /**
+     * A permit if a call may start right away, null otherwise; for calls only worth making while there is room.
+     */
+    public synchronized @Nullable Permit tryAcquire() {
+        // Never ahead of the callers already waiting
+        if (pausedUntilNanos > System.nanoTime() || !waiters.isEmpty() || inFlight >= (int) limit) {
+            return null;
+        }
+        inFlight++;
+        return new Permit(System.nanoTime(), inFlight);
+    }
+
+    private synchronized void onSuccess(Permit permit) {
+        release();
+        double rtt = System.nanoTime() - permit.startNanos;
+        if (rttBaselineNanos == 0) {
+            rttBaselineNanos = rtt;
+        } else {
+            // Settles on the BASELINE_QUANTILE of the RTTs: slow requests move it up a little, fast ones down a lot
+            double step = rttBaselineNanos * BASELINE_STEP;
+            rttBaselineNanos += rtt > rttBaselineNanos ? step * BASELINE_QUANTILE : -step * (1 - BASELINE_QUANTILE);
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * rttBaselineNanos / rtt));
+        double estimate = limit * gradient + Math.sqrt(limit);
+        // Not used at more than half of it: the responses say nothing about a higher limit
+        if (permit.inFlightAtStart * 2 < limit) {
+            estimate = Math.min(estimate, limit);
+        }
+        setLimit(limit * (1 - SMOOTHING) + estimate * SMOOTHING, null);
+    }
+
+    private synchronized void onDropped(Permit permit, String reason, Duration retryAfter) {
+        release();
+        drops++;
+        long now = System.nanoTime();
+        if (!retryAfter.isZero() && !retryAfter.isNegative()) {
+            long retryAfterNanos = Math.min(retryAfter.toNanos(), MAX_RETRY_AFTER.toNanos());
+            pausedUntilNanos = Math.max(pausedUntilNanos, now + retryAfterNanos);
+        }
+        // Calls that started before the last back off saw the old limit, they do not count again
+        if (permit.startNanos > lastBackoffNanos) {
+            lastBackoffNanos = now;
+            setLimit(limit * BACKOFF, reason);
+        }
+    }
+
+    private synchronized void onIgnored() {
+        release();
+    }
+
+    private void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    private void setLimit(double newLimit, String reason) {
+        int before = (int) limit;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        int after = (int) limit;
+        if (reason != null) {
+            LOG.info(endpoint + ": concurrency limit " + before + " -> " + after + " after " + reason
+                    + (pausedUntilNanos > System.nanoTime() ? ", paused for " + getRetryAfterRemainingMillis() + " ms" : ""));
+        } else if (after != before && LOG.isDebugEnabled()) {
+            LOG.debug(endpoint + ": concurrency limit " + before + " -> " + after
+                    + ", RTT baseline " + getRttBaselineMillis() + " ms");
+        }
+    }
+
+    @Override
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    @Override
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    @Override
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    @Override
+    public synchronized int getQueued() {
+        return waiters.size();
+    }
+
+    @Override
+    public synchronized long getRttBaselineMillis() {
+        return Math.round(rttBaselineNanos / 1e6);
+    }
+
+    @Override
+    public synchronized long getDrops() {
+        return drops;
+    }
+
+    @Override
+    public synchronized long getRetryAfterRemainingMillis() {
+        return Math.max(0, (pausedUntilNanos - System.nanoTime()) / 1_000_000);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return endpoint + ": limit " + (int) limit + ", " + inFlight + " in flight, " + waiters.size() + " queued, RTT baseline "
+                + getRttBaselineMillis() + " ms, " + drops + " drops";
+    }
+
+    /**
+     * One call allowed to run, to be released with the outcome it had.
+     */
+    public final class Permit {
+        private final long startNanos;
+        private final int inFlightAtStart;
+        private boolean released;
+
+        private Permit(long startNanos, int inFlightAtStart) {
+            this.startNanos = startNanos;
+            this.inFlightAtStart = inFlightAtStart;
+        }
+
+        /**
+         * The endpoint answered, its RTT counts towards the limit.
+         */
+        public void success() {
+            if (release()) {
+                onSuccess(this);
+            }
+        }
+
+        /**
+         * The endpoint is overloaded: throttled, unavailable or timed out.
+         */
+        public void dropped(String reason, Duration retryAfter) {
+            if (release()) {
+                onDropped(this, reason, retryAfter);
+            }
+        }
+
+        /**
+         * The call ended in a way that says nothing about the load, such as a client error or a refused connection.
+         */
+        public void ignore() {
+            if (release()) {
+                onIgnored();
+            }
+        }
+
+        private synchronized boolean release() {
+            if (released) {
+                return false;
+            }
+            released = true;
+            return true;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package org.intellij.sdk.action.services;
 
+import java.time.Duration;
+
 public class ApiConfig {
     private static final String BASE_URL = System.getenv("API_BASE_URL") != null
             ? System.getenv("API_BASE_URL")
@@ -9,10 +11,129 @@ public class ApiConfig {
 
     public static class API_ENDPOINTS {
         public static final String GENERATE_UNIT_TEST = UNIT_TEST_BASE_URL + "/generate_unit_test";
+        public static final String GENERATE_UNIT_TEST_BATCH = UNIT_TEST_BASE_URL + "/generate_unit_test_batch";
+        public static final String UPLOAD_CONTEXT = UNIT_TEST_BASE_URL + "/context";
         public static final String EXTRACT_BASE_CLASS = UNIT_TEST_BASE_URL + "/extract_base_class";
         public static final String MERGE_CLASS = UNIT_TEST_BASE_URL + "/merge_class";
         public static final String REGISTER_USER_TOKEN = USER_TOKEN_BASE_URL + "/register";
         public static final String GENERATE_USER_TOKEN = USER_TOKEN_BASE_URL + "/generate-token";
         public static final String CHECK_ACCESS_TOKEN = USER_TOKEN_BASE_URL + "/do/check";
     }
+
+    public static class TIMEOUTS {
+        // Time allowed to establish the TCP/TLS connection
+        public static final Duration CONNECT = millis("API_CONNECT_TIMEOUT_MS", 5_000);
+        // Time allowed between sending the request and receiving the response headers
+        public static final Duration READ = millis("API_READ_TIMEOUT_MS", 120_000);
+        // Upper bound for the whole exchange, including reading the response body
+        public static final Duration TOTAL = millis("API_TOTAL_TIMEOUT_MS", 180_000);
+        // Assumed lifetime of an access token whose expiry cannot be read from the token itself
+        public static final Duration ACCESS_TOKEN_TTL = millis("SENTRA_ACCESS_TOKEN_TTL_MS", 30 * 60_000);
+    }
+
+    public static class GENERATION {
+        // Maximum number of per-function generate_unit_test calls in flight for one run
+        public static final int CONCURRENCY = (int) Math.max(1, envLong("SENTRA_GENERATION_CONCURRENCY", 8));
+        // Maximum number of API calls in flight for all runs together, see GenerationScheduler
+        public static final int MAX_IN_FLIGHT = (int) Math.max(1, envLong("SENTRA_MAX_IN_FLIGHT", 16));
+    }
+
+    public static class CONCURRENCY_LIMIT {
+        // Concurrent calls allowed per endpoint before the backend has answered any, see AdaptiveConcurrencyLimiter
+        public static final int INITIAL = (int) Math.max(1, envLong("SENTRA_LIMIT_INITIAL", 4));
+        // Bounds the adaptive per-endpoint limit stays within
+        public static final int MIN = (int) Math.max(1, envLong("SENTRA_LIMIT_MIN", 1));
+        public static final int MAX = (int) Math.max(1, envLong("SENTRA_LIMIT_MAX", 64));
+    }
+
+    public static class RETRY {
+        // Attempts per call, the first one included, for connect errors, 5xx and 429
+        public static final int MAX_ATTEMPTS = (int) Math.max(1, envLong("SENTRA_RETRY_MAX_ATTEMPTS", 4));
+        // Ceiling of the first back off, doubled on each further attempt up to MAX_DELAY
+        public static final Duration BASE_DELAY = millis("SENTRA_RETRY_BASE_DELAY_MS", 500);
+        public static final Duration MAX_DELAY = millis("SENTRA_RETRY_MAX_DELAY_MS", 15_000);
+        // Retries allowed per call made to an endpoint, over time
+        public static final double BUDGET_RATIO = Math.max(0, envLong("SENTRA_RETRY_BUDGET_PERCENT", 20)) / 100.0;
+        // Failures in a row after which an endpoint is not called for BREAKER_OPEN
+        public static final int BREAKER_FAILURES = (int) Math.max(1, envLong("SENTRA_BREAKER_FAILURES", 5));
+        public static final Duration BREAKER_OPEN = millis("SENTRA_BREAKER_OPEN_MS", 30_000);
+    }
+
+    public static class HEDGING {
+        // Send a second copy of calls that run past PERCENTILE of their endpoint's recent response times; off by default
+        public static final boolean ENABLED = envFlag("SENTRA_HEDGING");
+        public static final double PERCENTILE = Math.max(50, Math.min(99, envLong("SENTRA_HEDGE_PERCENTILE", 95))) / 100.0;
+        // Hedges allowed per call made to an endpoint, over time
+        public static final double BUDGET_RATIO = Math.max(0, envLong("SENTRA_HEDGE_BUDGET_PERCENT", 5)) / 100.0;
+        // Calls answered within this time are never hedged
+        public static final Duration MIN_DELAY = millis("SENTRA_HEDGE_MIN_DELAY_MS", 50);
+    }
+
+    public static class BATCHING {
+        // Send small functions of a file together in generate_unit_test_batch requests; off by default
+        public static final boolean ENABLED = envFlag("SENTRA_BATCHING");
+        // Request bytes a batch may not go over, about a quarter of that in tokens
+        public static final int MAX_BYTES = (int) Math.max(1024, envLong("SENTRA_BATCH_MAX_BYTES", 24_000));
+        public static final int MAX_FUNCTIONS = (int) Math.max(2, envLong("SENTRA_BATCH_MAX_FUNCTIONS", 16));
+    }
+
+    public static class CONTEXT_SLICING {
+        // Send each function with only the imports, fields and helpers it refers to, comments stripped; on by default
+        public static final boolean ENABLED = envFlag("SENTRA_CONTEXT_SLICING", true);
+    }
+
+    public static class SHARED_CONTEXT {
+        // Upload each class context once and reference it by hash from the requests that need it; off by default
+        public static final boolean ENABLED = envFlag("SENTRA_SHARED_CONTEXT");
+        // Smaller contexts are sent inline, referencing them saves less than the upload costs
+        public static final int MIN_BYTES = (int) Math.max(0, envLong("SENTRA_SHARED_CONTEXT_MIN_BYTES", 2048));
+    }
+
+    public static class COMPRESSION {
+        // Ask for gzip responses; generated tests shrink about 5-8x
+        public static final boolean ENABLED = envFlag("SENTRA_GZIP", true);
+        // Gzip request bodies too; off by default, as a backend that cannot decode them may fail or misread them
+        // rather than answer 415
+        public static final boolean REQUESTS = envFlag("SENTRA_GZIP_REQUESTS");
+        // Smaller request bodies are sent as they are, compressing them saves less than it costs
+        public static final int MIN_BYTES = (int) Math.max(0, envLong("SENTRA_GZIP_MIN_BYTES", 1024));
+    }
+
+    public static class WIRE_FORMAT {
+        // Ask for Smile, Jackson's binary JSON, and send it to the endpoints that answer in it; off by default
+        public static final boolean SMILE = envFlag("SENTRA_SMILE");
+    }
+
+    public static class CACHE {
+        // Upper bound for each on-disk response cache before least recently used entries are evicted
+        public static final long MAX_BYTES = Math.max(0, envLong("SENTRA_CACHE_MAX_MB", 256)) * 1024 * 1024;
+    }
+
+    static long envLong(String name, long defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    static boolean envFlag(String name) {
+        return envFlag(name, false);
+    }
+
+    static boolean envFlag(String name, boolean defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return value.trim().equalsIgnoreCase("true") || value.trim().equals("1");
+    }
+
+    private static Duration millis(String name, long defaultValue) {
+        return Duration.ofMillis(envLong(name, defaultValue));
+    }
 }
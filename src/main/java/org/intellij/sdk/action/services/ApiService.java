@@ -1,53 +1,292 @@
 package org.intellij.sdk.action.services;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intellij.openapi.diagnostic.Logger;
 import org.intellij.sdk.action.dto.ApiResponse;
+import org.intellij.sdk.action.dto.BatchApiResponse;
 import org.intellij.sdk.action.dto.ExtractBaseClassResponse;
 import org.intellij.sdk.action.dto.MergeClassResponse;
+import org.intellij.sdk.action.dto.UploadContextResponse;
+import org.jetbrains.annotations.Nullable;
 
-import java.io.*;
-import java.net.HttpURLConnection;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.NetworkInterface;
 import java.net.URI;
-import java.net.URL;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ApiService {
-    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final Logger LOG = Logger.getInstance(ApiService.class);
+    private static final DiskCache unitTestCache = DiskCache.named("ut-cache");
+    // extract_base_class and merge_class results, shared by every run in this IDE session
+    private static final TwoLevelCache classCache = new TwoLevelCache(DiskCache.named("class-cache"), 512);
+    // endpoint URL -> its concurrency limit, retry budget, circuit breaker and body encoding
+    private static final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    // Class contexts sent by reference, see ApiConfig.SHARED_CONTEXT
+    private static final ContextStore contextStore = new ContextStore();
+    // Cleared for the rest of the session when the backend turns out to have no batch endpoint
+    private static volatile boolean batchEndpointAvailable = true;
 
     public static ApiResponse genUnitTest(String key, String functionName, String code, String accessToken, String generatedTests) throws IOException {
+        return genUnitTest(key, functionName, code, accessToken, generatedTests, false);
+    }
+
+    public static ApiResponse genUnitTest(String key, String functionName, String code, String accessToken, String generatedTests, boolean bypassCache) throws IOException {
+        return genUnitTest(key, functionName, code, null, accessToken, generatedTests, bypassCache);
+    }
+
+    /**
+     * @param classContext the class merged with its base classes, for functions that use inherited members; null if
+     *                     the function does not need it
+     */
+    public static ApiResponse genUnitTest(String key, String functionName, String code, String classContext, String accessToken, String generatedTests, boolean bypassCache) throws IOException {
         String url = ApiConfig.API_ENDPOINTS.GENERATE_UNIT_TEST;
 
-        Map<String, String> payload = new HashMap<>();
+        Map<String, Object> payload = new HashMap<>();
         payload.put("key", key);
         payload.put("functionName", functionName);
         payload.put("sourceCode", code);
         payload.put("generatedTests", generatedTests);
 
-        return postRequest(url, payload, accessToken, ApiResponse.class);
+        String cacheKey = unitTestCacheKey(functionName, code, generatedTests, classContext);
+        if (!bypassCache) {
+            ApiResponse cached = unitTestCache.get(cacheKey, ApiResponse.class);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        ApiResponse response = postWithContext(url, payload, classContext, accessToken, ApiResponse.class);
+        unitTestCache.put(cacheKey, response);
+        return response;
+    }
+
+    /**
+     * Generates the unit tests of several functions of one file in {@code generate_unit_test_batch} requests, see
+     * {@link BatchPlanner}. Results are cached per function, the same as from
+     * {@link #genUnitTest(String, String, String, String, String, String, boolean)}.
+     * <p>
+     * A batch the server finds too large (413) is split in half and each half sent again. Without a batch endpoint
+     * on the server (404), this and every later batch of the session is sent one function at a time.
+     *
+     * @return functionName -> its unit test, for every function that got one
+     */
+    public static Map<String, ApiResponse> genUnitTestBatch(String key, List<String> functionNames, List<String> codes, String classContext, String accessToken, boolean bypassCache) throws IOException {
+        Map<String, ApiResponse> results = new LinkedHashMap<>();
+        List<Integer> misses = new ArrayList<>();
+        for (int i = 0; i < functionNames.size(); i++) {
+            ApiResponse cached = bypassCache ? null : unitTestCache.get(unitTestCacheKey(functionNames.get(i), codes.get(i), "", classContext), ApiResponse.class);
+            if (cached != null) {
+                results.put(functionNames.get(i), cached);
+            } else {
+                misses.add(i);
+            }
+        }
+        postBatch(key, functionNames, codes, misses, classContext, accessToken, results);
+        return results;
+    }
+
+    private static void postBatch(String key, List<String> functionNames, List<String> codes, List<Integer> indices, String classContext, String accessToken, Map<String, ApiResponse> results) throws IOException {
+        if (indices.isEmpty()) {
+            return;
+        }
+        if (indices.size() == 1 || !batchEndpointAvailable) {
+            for (int i : indices) {
+                results.put(functionNames.get(i), genUnitTest(key, functionNames.get(i), codes.get(i), classContext, accessToken, "", true));
+            }
+            return;
+        }
+
+        List<Map<String, String>> functions = new ArrayList<>(indices.size());
+        for (int i : indices) {
+            functions.add(Map.of("functionName", functionNames.get(i), "sourceCode", codes.get(i)));
+        }
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("key", key);
+        payload.put("functions", functions);
+        payload.put("generatedTests", "");
+
+        BatchApiResponse response;
+        try {
+            response = postWithContext(ApiConfig.API_ENDPOINTS.GENERATE_UNIT_TEST_BATCH, payload, classContext, accessToken, BatchApiResponse.class);
+        } catch (HttpStatusException e) {
+            if (e.statusCode == 404) {
+                LOG.info("The backend has no batch endpoint, generating one function at a time");
+                batchEndpointAvailable = false;
+            } else if (e.statusCode != 413) {
+                throw e;
+            }
+            int half = indices.size() / 2;
+            postBatch(key, functionNames, codes, indices.subList(0, half), classContext, accessToken, results);
+            postBatch(key, functionNames, codes, indices.subList(half, indices.size()), classContext, accessToken, results);
+            return;
+        }
+
+        Map<String, ApiResponse> generated = response.getResults() != null ? response.getResults() : Map.of();
+        List<Integer> missing = new ArrayList<>();
+        for (int i : indices) {
+            ApiResponse result = generated.get(functionNames.get(i));
+            if (result == null || result.getUnitTest() == null) {
+                missing.add(i);
+                continue;
+            }
+            results.put(functionNames.get(i), result);
+            unitTestCache.put(unitTestCacheKey(functionNames.get(i), codes.get(i), "", classContext), result);
+        }
+        // Left out of the batch response: asked for one at a time
+        for (int i : missing) {
+            results.put(functionNames.get(i), genUnitTest(key, functionNames.get(i), codes.get(i), classContext, accessToken, "", true));
+        }
+    }
+
+    /**
+     * Posts {@code payload} with {@code classContext} added to it, by reference if the {@link ContextStore} shares
+     * it and inline otherwise.
+     */
+    private static <T> T postWithContext(String url, Map<String, Object> payload, @Nullable String classContext, String accessToken, Class<T> responseClass) throws IOException {
+        String hash = classContext == null ? null : referenceContext(classContext, accessToken);
+        if (hash == null) {
+            if (classContext != null) {
+                payload.put("classContext", classContext);
+            }
+            return postRequest(url, payload, accessToken, responseClass);
+        }
+
+        payload.put("classContextHash", hash);
+        try {
+            return postRequest(url, payload, accessToken, responseClass);
+        } catch (HttpStatusException e) {
+            if (e.statusCode != 409) {
+                throw e;
+            }
+            // The backend no longer has the context: upload it again, or send it inline if that fails
+            contextStore.forget(hash);
+            if (referenceContext(classContext, accessToken) == null) {
+                payload.remove("classContextHash");
+                payload.put("classContext", classContext);
+            }
+            return postRequest(url, payload, accessToken, responseClass);
+        }
+    }
+
+    private static @Nullable String referenceContext(String classContext, String accessToken) throws IOException {
+        try {
+            return contextStore.reference(classContext, (hash, content) -> {
+                Map<String, String> payload = new HashMap<>();
+                payload.put("hash", hash);
+                payload.put("content", content);
+                return postRequest(ApiConfig.API_ENDPOINTS.UPLOAD_CONTEXT, payload, accessToken, UploadContextResponse.class).getHash();
+            });
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (HttpStatusException e) {
+            if (e.statusCode == 404) {
+                contextStore.disable();
+            } else {
+                LOG.warn("Failed to upload a class context, sending it inline", e);
+            }
+            return null;
+        } catch (IOException e) {
+            LOG.warn("Failed to upload a class context, sending it inline", e);
+            return null;
+        }
+    }
+
+    /**
+     * The random request key does not affect the result, so it is left out.
+     */
+    private static String unitTestCacheKey(String functionName, String code, String generatedTests, @Nullable String classContext) {
+        String url = ApiConfig.API_ENDPOINTS.GENERATE_UNIT_TEST;
+        return classContext == null
+                ? DiskCache.hash(url, functionName, code, generatedTests)
+                : DiskCache.hash(url, functionName, code, generatedTests, classContext);
+    }
+
+    /**
+     * The concurrency limiters of the endpoints called so far.
+     */
+    public static Collection<AdaptiveConcurrencyLimiter> getConcurrencyLimiters() {
+        return endpoints.values().stream().map(Endpoint::limiter).toList();
+    }
+
+    /**
+     * The hedging policies of the endpoints called so far, empty unless {@link ApiConfig.HEDGING} is on.
+     */
+    public static Collection<HedgingPolicy> getHedgingPolicies() {
+        return endpoints.values().stream().map(Endpoint::hedging).filter(Objects::nonNull).toList();
+    }
+
+    public static ContextStore getContextStore() {
+        return contextStore;
+    }
+
+    public static DiskCache getUnitTestCache() {
+        return unitTestCache;
     }
 
     public static ExtractBaseClassResponse extractBaseClass(String code) throws IOException {
-        String accessToken = TokenService.getStoredAccessToken();
         String url = ApiConfig.API_ENDPOINTS.EXTRACT_BASE_CLASS;
 
+        String cacheKey = DiskCache.hash(url, code);
+        ExtractBaseClassResponse cached = classCache.get(cacheKey, ExtractBaseClassResponse.class);
+        if (cached != null) {
+            return cached;
+        }
+
         Map<String, String> payload = new HashMap<>();
         payload.put("sourceCode", code);
 
-        return postRequest(url, payload, accessToken, ExtractBaseClassResponse.class);
+        ExtractBaseClassResponse response = postRequest(url, payload, TokenService.getValidAccessToken(), ExtractBaseClassResponse.class);
+        classCache.put(cacheKey, response);
+        return response;
     }
 
     public static MergeClassResponse mergeClass(String code) throws IOException {
-        String accessToken = TokenService.getStoredAccessToken();
+        return mergeClass(code, new String[0]);
+    }
+
+    /**
+     * Merges {@code code} with its hierarchy. The result is memoized by the hash of {@code code} and of every
+     * {@code hierarchyContents} entry, so a change to any class in the resolved hierarchy invalidates it.
+     */
+    public static MergeClassResponse mergeClass(String code, String... hierarchyContents) throws IOException {
         String url = ApiConfig.API_ENDPOINTS.MERGE_CLASS;
 
+        String[] keyParts = new String[hierarchyContents.length + 2];
+        keyParts[0] = url;
+        keyParts[1] = code;
+        System.arraycopy(hierarchyContents, 0, keyParts, 2, hierarchyContents.length);
+        String cacheKey = DiskCache.hash(keyParts);
+        MergeClassResponse cached = classCache.get(cacheKey, MergeClassResponse.class);
+        if (cached != null) {
+            return cached;
+        }
+
+        // The server merges the classes it finds in sourceCode, so the hierarchy travels along with the class
+        StringBuilder sourceCode = new StringBuilder(code);
+        for (String hierarchyContent : hierarchyContents) {
+            sourceCode.append("\n\n").append(hierarchyContent);
+        }
         Map<String, String> payload = new HashMap<>();
-        payload.put("sourceCode", code);
+        payload.put("sourceCode", sourceCode.toString());
 
-        return postRequest(url, payload, accessToken, MergeClassResponse.class);
+        MergeClassResponse response = postRequest(url, payload, TokenService.getValidAccessToken(), MergeClassResponse.class);
+        classCache.put(cacheKey, response);
+        return response;
     }
 
     public static boolean registerToken(String token) {
@@ -57,11 +296,8 @@ public class ApiService {
             payload.put("token", token);
             payload.put("assignedTo", mac != null ? mac : "");
 
-            HttpURLConnection conn = createConnection(ApiConfig.API_ENDPOINTS.REGISTER_USER_TOKEN, "POST", null);
-            writeBody(conn, payload);
-
-            int status = conn.getResponseCode();
-            return status >= 200 && status < 300;
+            HttpResponse<byte[]> response = HttpTransport.post(ApiConfig.API_ENDPOINTS.REGISTER_USER_TOKEN, null, JsonCodec.writer().writeValueAsBytes(payload));
+            return HttpTransport.isSuccess(response.statusCode());
         } catch (IOException e) {
             return false;
         }
@@ -69,25 +305,37 @@ public class ApiService {
 
     public static String getAccessToken(String userToken) {
         try {
-            Map<String, String> payload = new HashMap<>();
-            payload.put("token", userToken);
+            return fetchAccessToken(userToken);
+        } catch (IOException e) {
+            LOG.warn("Failed to get new access token", e);
+        }
+        return null;
+    }
 
-            HttpURLConnection conn = createConnection(ApiConfig.API_ENDPOINTS.GENERATE_USER_TOKEN, "POST", null);
-            writeBody(conn, payload);
+    /**
+     * Exchanges the user token for an access token.
+     *
+     * @return the access token, or {@code null} when the server rejects the user token
+     * @throws IOException when the server could not be reached
+     */
+    public static String fetchAccessToken(String userToken) throws IOException {
+        Map<String, String> payload = new HashMap<>();
+        payload.put("token", userToken);
 
-            if (conn.getResponseCode() == 200) {
-                return readString(conn.getInputStream());
-            }
-        } catch (IOException ignored) {
+        HttpResponse<byte[]> response = HttpTransport.post(ApiConfig.API_ENDPOINTS.GENERATE_USER_TOKEN, null, JsonCodec.writer().writeValueAsBytes(payload));
+        // The backend creates a token with each exchange and answers 201; the response text is the token itself
+        if (response.statusCode() == 201) {
+            return readString(response.body());
         }
         return null;
     }
 
     public static boolean checkToken(String accessToken) {
         try {
-            HttpURLConnection conn = createConnection(ApiConfig.API_ENDPOINTS.CHECK_ACCESS_TOKEN, "GET", accessToken);
-            return conn.getResponseCode() == 200;
+            HttpResponse<byte[]> response = HttpTransport.get(ApiConfig.API_ENDPOINTS.CHECK_ACCESS_TOKEN, accessToken);
+            return response.statusCode() == 200;
         } catch (IOException e) {
+            LOG.warn("Failed to check token", e);
             return false;
         }
     }
@@ -95,43 +343,309 @@ public class ApiService {
     // --- Utility Methods ---
 
     private static <T> T postRequest(String urlString, Map<String, ?> payload, String accessToken, Class<T> responseClass) throws IOException {
-        HttpURLConnection conn = createConnection(urlString, "POST", accessToken);
-        writeBody(conn, payload);
-
-        if (conn.getResponseCode() >= 200 && conn.getResponseCode() < 300) {
-            // Read the response stream
-            InputStream inputStream = conn.getInputStream();
-            String responseBody = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
-            // Parse responseBody into the responseClass
-            return objectMapper.readValue(responseBody, responseClass);
+        Endpoint endpoint = endpoints.computeIfAbsent(urlString, Endpoint::create);
+        RequestBody body = RequestBody.encode(payload, endpoint.encoding());
+        // Same key on every attempt, so the backend can tell a retry from a new request
+        String idempotencyKey = UUID.randomUUID().toString();
+        HttpResponse<List<ByteBuffer>> response = postWithRetries(endpoint, urlString, accessToken, body, idempotencyKey);
+
+        // The backend does not take the body as it was encoded: fall back one encoding at a time, for good
+        while (response.statusCode() == 415 && (body.format() != JsonCodec.Format.JSON || body.gzip())) {
+            if (body.format() != JsonCodec.Format.JSON) {
+                LOG.info(urlString + " does not accept " + body.format() + " request bodies, sending JSON");
+                endpoint.encoding().smileAccepted = false;
+            } else {
+                LOG.info(urlString + " does not accept gzip request bodies, sending them uncompressed");
+                endpoint.encoding().gzipAccepted = false;
+            }
+            body = RequestBody.encode(payload, endpoint.encoding());
+            response = postWithRetries(endpoint, urlString, accessToken, body, idempotencyKey);
+        }
+
+        if (response.statusCode() == 401 && accessToken != null) {
+            // The token expired or was revoked on the server: refresh it once and replay the request
+            String refreshedToken = TokenService.refreshAfterUnauthorized(accessToken);
+            if (refreshedToken != null) {
+                response = postWithRetries(endpoint, urlString, refreshedToken, body, idempotencyKey);
+            }
+        }
+
+        if (HttpTransport.isSuccess(response.statusCode())) {
+            // Parse the response body into the responseClass
+            JsonCodec.Format format = JsonCodec.Format.of(response.headers().firstValue("Content-Type").orElse(null));
+            if (format == JsonCodec.Format.SMILE) {
+                // Answering in Smile says the endpoint reads it too
+                endpoint.encoding().smile = true;
+            }
+            return JsonCodec.read(response.body(), format, HttpTransport.isGzip(response), responseClass);
         } else {
-            throw new IOException("Error " + conn.getResponseCode() + " - " + conn.getResponseMessage());
+            throw new HttpStatusException(response.statusCode(), "Error " + response.statusCode() + " - " + response.uri());
+        }
+    }
+
+    /**
+     * A serialized payload as it is sent.
+     */
+    private record RequestBody(List<byte[]> chunks, JsonCodec.Format format, boolean gzip) {
+        /**
+         * Serializes {@code payload} as Smile once the endpoint is known to read it, as JSON otherwise, and
+         * compresses it if {@link ApiConfig.COMPRESSION#REQUESTS} is on, it is large enough and the endpoint has not
+         * turned compressed bodies down.
+         */
+        static RequestBody encode(Map<String, ?> payload, BodyEncoding encoding) throws IOException {
+            JsonCodec.Format format = encoding.smile && encoding.smileAccepted ? JsonCodec.Format.SMILE : JsonCodec.Format.JSON;
+            List<byte[]> chunks = JsonCodec.write(format, payload);
+            if (ApiConfig.COMPRESSION.REQUESTS && encoding.gzipAccepted && JsonCodec.size(chunks) >= ApiConfig.COMPRESSION.MIN_BYTES) {
+                return new RequestBody(JsonCodec.gzip(chunks), format, true);
+            }
+            return new RequestBody(chunks, format, false);
+        }
+    }
+
+    /**
+     * How an endpoint takes request bodies, learnt from its responses.
+     */
+    private static final class BodyEncoding {
+        // Set once the endpoint answers in Smile, see ApiConfig.WIRE_FORMAT
+        volatile boolean smile;
+        // Cleared once the endpoint answers a Smile body with 415
+        volatile boolean smileAccepted = true;
+        // Cleared once the endpoint answers a gzip body with 415
+        volatile boolean gzipAccepted = true;
+    }
+
+    /**
+     * A response with a status other than 2xx, for the callers that handle some statuses themselves.
+     */
+    private static final class HttpStatusException extends IOException {
+        final int statusCode;
+
+        HttpStatusException(int statusCode, String message) {
+            super(message);
+            this.statusCode = statusCode;
         }
     }
 
-    private static HttpURLConnection createConnection(String urlString, String method, String accessToken) throws IOException {
-        URL url = URI.create(urlString).toURL();
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod(method);
-        conn.setRequestProperty("Content-Type", "application/json");
-        if (accessToken != null) {
-            conn.setRequestProperty("Authorization", "Bearer " + accessToken);
+    /**
+     * Posts until the endpoint answers with something other than a 5xx or 429, as long as its {@link RetryPolicy} allows
+     * another attempt. Fails right away while its {@link CircuitBreaker} is open.
+     */
+    private static HttpResponse<List<ByteBuffer>> postWithRetries(Endpoint endpoint, String urlString, String accessToken, RequestBody body, String idempotencyKey) throws IOException {
+        endpoint.retryPolicy().onCall();
+        for (int attempt = 1; ; attempt++) {
+            endpoint.circuitBreaker().checkCallAllowed();
+            HttpResponse<List<ByteBuffer>> response;
+            try {
+                response = limitedPost(endpoint, urlString, accessToken, body, idempotencyKey);
+            } catch (IOException e) {
+                if (RetryPolicy.isRetryable(e) || e instanceof HttpTimeoutException) {
+                    endpoint.circuitBreaker().onFailure();
+                } else {
+                    endpoint.circuitBreaker().onNeutral();
+                }
+                if (!RetryPolicy.isRetryable(e) || !endpoint.retryPolicy().tryRetry(attempt)) {
+                    throw e;
+                }
+                backOff(endpoint.retryPolicy().delay(attempt, Duration.ZERO), urlString, e.toString());
+                continue;
+            }
+
+            int statusCode = response.statusCode();
+            if (statusCode >= 500) {
+                endpoint.circuitBreaker().onFailure();
+            } else {
+                endpoint.circuitBreaker().onSuccess();
+            }
+            if (!RetryPolicy.isRetryable(statusCode) || !endpoint.retryPolicy().tryRetry(attempt)) {
+                return response;
+            }
+            backOff(endpoint.retryPolicy().delay(attempt, HttpTransport.retryAfter(response)), urlString, "Error " + statusCode);
         }
-        conn.setDoOutput(true);
-        return conn;
     }
 
-    private static void writeBody(HttpURLConnection conn, Map<String, ?> payload) throws IOException {
-        try (OutputStream os = conn.getOutputStream()) {
-            byte[] input = objectMapper.writeValueAsBytes(payload);
-            os.write(input);
+    private static void backOff(Duration delay, String urlString, String reason) throws InterruptedIOException {
+        LOG.info(reason + " from " + urlString + ", retrying in " + delay.toMillis() + " ms");
+        try {
+            Thread.sleep(delay.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry " + urlString);
         }
     }
 
-    private static String readString(InputStream stream) throws IOException {
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(stream))) {
-            return br.readLine();
+    /**
+     * Posts once the endpoint's {@link AdaptiveConcurrencyLimiter} lets the call start, and tells it how the call went.
+     * <p>
+     * With {@link ApiConfig.HEDGING} on, a call still unanswered after the endpoint's {@link HedgingPolicy} delay is
+     * sent a second time, if the hedge budget and the limiter have room for it. The first success is used and the
+     * other request is aborted.
+     */
+    private static HttpResponse<List<ByteBuffer>> limitedPost(Endpoint endpoint, String urlString, String accessToken, RequestBody body, String idempotencyKey) throws IOException {
+        Exchange primary = Exchange.start(endpoint, endpoint.limiter().acquire(), urlString, accessToken, body, idempotencyKey);
+        HedgingPolicy hedging = endpoint.hedging();
+        if (hedging == null) {
+            return primary.await(ApiConfig.TIMEOUTS.TOTAL);
+        }
+        hedging.onCall();
+        Duration hedgeDelay = hedging.getDelay();
+        if (hedgeDelay == null || !primary.stillRunningAfter(hedgeDelay)) {
+            return primary.await(primary.remaining());
+        }
+
+        AdaptiveConcurrencyLimiter.Permit hedgePermit = endpoint.limiter().tryAcquire();
+        if (hedgePermit == null || !hedging.tryHedge()) {
+            if (hedgePermit != null) {
+                hedgePermit.ignore();
+            }
+            return primary.await(primary.remaining());
         }
+        // A key of its own: a backend that deduplicates retries must not answer the hedge with the slow original
+        Exchange hedge = Exchange.start(endpoint, hedgePermit, urlString, accessToken, body, idempotencyKey + "-hedge");
+
+        Exchange winner;
+        try {
+            winner = HttpTransport.await(Exchange.firstSuccess(primary, hedge), primary.uri, primary.remaining());
+        } catch (IOException e) {
+            primary.fail(e);
+            hedge.fail(e);
+            throw e;
+        }
+        (winner == primary ? hedge : primary).cancel();
+        return winner.await(primary.remaining());
+    }
+
+    /**
+     * One request sent under a limiter permit.
+     */
+    private static final class Exchange {
+        final Endpoint endpoint;
+        final AdaptiveConcurrencyLimiter.Permit permit;
+        final URI uri;
+        final long startNanos = System.nanoTime();
+        final CompletableFuture<HttpResponse<List<ByteBuffer>>> future;
+
+        private Exchange(Endpoint endpoint, AdaptiveConcurrencyLimiter.Permit permit, URI uri, CompletableFuture<HttpResponse<List<ByteBuffer>>> future) {
+            this.endpoint = endpoint;
+            this.permit = permit;
+            this.uri = uri;
+            this.future = future;
+        }
+
+        static Exchange start(Endpoint endpoint, AdaptiveConcurrencyLimiter.Permit permit, String urlString, String accessToken, RequestBody body, String idempotencyKey) {
+            try {
+                return new Exchange(endpoint, permit, URI.create(urlString), HttpTransport.postAsync(urlString, accessToken, body.chunks(), body.format().mediaType(), body.gzip(), idempotencyKey));
+            } catch (RuntimeException e) {
+                permit.ignore();
+                throw e;
+            }
+        }
+
+        /**
+         * The first of both to answer with a 2xx, or the last to finish if neither does.
+         */
+        static CompletableFuture<Exchange> firstSuccess(Exchange first, Exchange second) {
+            CompletableFuture<Exchange> result = new CompletableFuture<>();
+            AtomicInteger pending = new AtomicInteger(2);
+            for (Exchange exchange : List.of(first, second)) {
+                exchange.future.whenComplete((response, error) -> {
+                    if ((error == null && HttpTransport.isSuccess(response.statusCode())) || pending.decrementAndGet() == 0) {
+                        result.complete(exchange);
+                    }
+                });
+            }
+            return result;
+        }
+
+        /**
+         * Whether the request is still running after {@code delay}.
+         */
+        boolean stillRunningAfter(Duration delay) {
+            try {
+                future.get(delay.toNanos(), TimeUnit.NANOSECONDS);
+                return false;
+            } catch (TimeoutException e) {
+                return true;
+            } catch (InterruptedException e) {
+                // await() sees the interrupt and aborts the request
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException | CancellationException e) {
+                return false;
+            }
+        }
+
+        Duration remaining() {
+            return ApiConfig.TIMEOUTS.TOTAL.minusNanos(System.nanoTime() - startNanos);
+        }
+
+        HttpResponse<List<ByteBuffer>> await(Duration timeout) throws IOException {
+            HttpResponse<List<ByteBuffer>> response;
+            try {
+                response = HttpTransport.await(future, uri, timeout);
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+                throw e;
+            }
+
+            int statusCode = response.statusCode();
+            if (statusCode == 429 || statusCode == 503) {
+                permit.dropped("a " + statusCode, HttpTransport.retryAfter(response));
+            } else if (HttpTransport.isSuccess(statusCode)) {
+                permit.success();
+                if (endpoint.hedging() != null) {
+                    endpoint.hedging().record(System.nanoTime() - startNanos);
+                }
+            } else {
+                permit.ignore();
+            }
+            return response;
+        }
+
+        void fail(Exception e) {
+            future.cancel(true);
+            if (e instanceof HttpTimeoutException) {
+                permit.dropped("a timeout", Duration.ZERO);
+            } else {
+                permit.ignore();
+            }
+        }
+
+        /**
+         * Aborts a request whose answer is no longer needed. Most often that is the hedge, which only lost for
+         * starting later, so it says nothing about the load and its slot is released without counting.
+         */
+        void cancel() {
+            future.cancel(true);
+            permit.ignore();
+        }
+    }
+
+    /**
+     * What is kept per backend endpoint.
+     */
+    private record Endpoint(
+            AdaptiveConcurrencyLimiter limiter,
+            RetryPolicy retryPolicy,
+            CircuitBreaker circuitBreaker,
+            @Nullable HedgingPolicy hedging,
+            BodyEncoding encoding) {
+        static Endpoint create(String url) {
+            String name = url.substring(url.lastIndexOf('/') + 1);
+            return new Endpoint(
+                    new AdaptiveConcurrencyLimiter(name, ApiConfig.CONCURRENCY_LIMIT.INITIAL, ApiConfig.CONCURRENCY_LIMIT.MIN, ApiConfig.CONCURRENCY_LIMIT.MAX).register(),
+                    new RetryPolicy(ApiConfig.RETRY.MAX_ATTEMPTS, ApiConfig.RETRY.BASE_DELAY, ApiConfig.RETRY.MAX_DELAY, ApiConfig.RETRY.BUDGET_RATIO),
+                    new CircuitBreaker(name, ApiConfig.RETRY.BREAKER_FAILURES, ApiConfig.RETRY.BREAKER_OPEN),
+                    ApiConfig.HEDGING.ENABLED
+                            ? new HedgingPolicy(name, ApiConfig.HEDGING.PERCENTILE, ApiConfig.HEDGING.BUDGET_RATIO, ApiConfig.HEDGING.MIN_DELAY)
+                            : null,
+                    new BodyEncoding());
+        }
+    }
+
+    private static String readString(byte[] body) {
+        StringBuilder result = new StringBuilder();
+        new String(body, StandardCharsets.UTF_8).lines().forEach(line -> result.append(line.trim()));
+        return result.toString();
     }
 
     private static String getMacAddress() {
@@ -2,132 +2,116 @@ package org.intellij.sdk.action.services;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProgressIndicator;
-import org.intellij.sdk.action.dto.ExtractBaseClassResponse;
-import org.intellij.sdk.action.dto.MergeClassResponse;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.regex.Pattern;
-import java.util.stream.Stream;
 
 public class BaseClassAttacher {
     private static final Logger LOG = Logger.getInstance(BaseClassAttacher.class);
 
+    // Null outside of a project, e.g. in the benchmark harness: lookups then go to the SymbolIndex
+    @Nullable
+    private final Project project;
+    @Nullable
+    private final ClassNameIndex classNameIndex;
+    private final HierarchyResolver hierarchyResolver;
+
+    public BaseClassAttacher() {
+        this(null);
+    }
+
+    public BaseClassAttacher(@Nullable Project project) {
+        this.project = project;
+        this.classNameIndex = project != null ? ClassNameIndex.getInstance(project) : null;
+        this.hierarchyResolver = new HierarchyResolver(this::locateBaseClass);
+    }
+
+    /**
+     * @param executor runs the server calls and file lookups, e.g. a {@link GenerationScheduler.Job#executor()}
+     */
+    public BaseClassAttacher(@Nullable Project project, Executor executor) {
+        this.project = project;
+        this.classNameIndex = project != null ? ClassNameIndex.getInstance(project) : null;
+        this.hierarchyResolver = new HierarchyResolver(this::locateBaseClass, executor);
+    }
+
+    /**
+     * {@code fileContent} merged with all of its base classes. Hierarchies are resolved and merged once per attacher,
+     * so files of one run that share a base class share its resolution.
+     */
     public CompletableFuture<String> attachBaseClass(
             String workspaceRoot,
             String fileContent,
             String fileType,
             AtomicBoolean cancelToken,
             @NotNull ProgressIndicator progressIndicator) throws IOException {
+        return hierarchyResolver.resolve(workspaceRoot, fileType, fileContent, cancelToken, progressIndicator);
+    }
 
-        if (cancelToken.get()) {
-            return CompletableFuture.completedFuture(fileContent);
-        }
-
-        String className =CodeAnalyzerService.extractClassName(fileType, fileContent);
-
-        ExtractBaseClassResponse baseClassResponse = ApiService.extractBaseClass(fileContent);
-
-        String baseClassName = baseClassResponse.getBaseClass();
-        System.out.println("Base class name: " + baseClassName);
-
-        // No base class found
-        if (baseClassName == null || "N/A".equals(baseClassName) || className.equals(baseClassName)) {
+    /**
+     * Same as {@link #attachBaseClass(String, String, String, AtomicBoolean, ProgressIndicator)} for a file whose base
+     * classes were already resolved by the IDE: no extract_base_class call and no workspace walk.
+     */
+    public CompletableFuture<String> attachBaseClass(
+            SourceModel model,
+            AtomicBoolean cancelToken,
+            @NotNull ProgressIndicator progressIndicator) {
+        String fileContent = model.getContent();
+        SourceModel baseModel = model.getBaseModel();
+        if (cancelToken.get() || baseModel == null) {
             return CompletableFuture.completedFuture(fileContent);
         }
 
-        // Regex to find base class
-        String regex = "class\\s+" + baseClassName + "\\b";
-
-        // Base class in the same file
-        if (fileContent.matches(regex)) {
-            progressIndicator.setText("The current class has a base class. Processing...");
-
-            if (cancelToken.get()) {
-                return CompletableFuture.completedFuture(fileContent);
-            }
+        progressIndicator.setText("The current class has a base class. Processing...");
 
-            MergeClassResponse mergedClass = ApiService.mergeClass(fileContent);
-            return CompletableFuture.completedFuture(mergedClass.getMergedClass());
-        }
+        return attachBaseClass(baseModel, cancelToken, progressIndicator)
+                .thenCompose(attachedBaseClassContent -> hierarchyResolver.merge(model.getFileType(), fileContent, attachedBaseClassContent, cancelToken));
+    }
 
-        // Find the base class file based on its name
-        Optional<Path> baseClassFilePath = CodeAnalyzerService.findBaseClassFile(workspaceRoot, baseClassName, fileType);
+    /**
+     * The source of {@code baseClassName}: the file named after it, else a file declaring it.
+     */
+    private String locateBaseClass(String workspaceRoot, String baseClassName, String fileType) throws IOException {
+        Optional<Path> baseClassFilePath = findFileNamed(workspaceRoot, baseClassName, fileType);
         if (baseClassFilePath.isPresent()) {
             try {
-                String baseFileContent = new String(Files.readAllBytes(baseClassFilePath.get()));
-                return recursivelyAttachAndMergeBaseClass(workspaceRoot, baseFileContent, fileType, fileContent, progressIndicator, cancelToken);
+                return new String(Files.readAllBytes(baseClassFilePath.get()));
             } catch (IOException e) {
                 LOG.error("Failed to read base class file: " + baseClassFilePath.get(), e);
             }
         }
-
-        // Find base class based on file content
-        String baseFileContent = findBaseClassByContent(workspaceRoot, fileType, regex);
-        return recursivelyAttachAndMergeBaseClass(workspaceRoot, baseFileContent, fileType, fileContent, progressIndicator, cancelToken);
+        return readDeclaringFile(workspaceRoot, baseClassName, fileType);
     }
 
-    public CompletableFuture<String> recursivelyAttachAndMergeBaseClass(
-            String workspaceRoot,
-            String baseFileContent,
-            String fileType,
-            final String fileContent,
-            @NotNull ProgressIndicator progressIndicator,
-            AtomicBoolean cancelToken) throws IOException {
-
-        // If no base file content is provided, return the current file content
-        if (baseFileContent == null || baseFileContent.isEmpty()) {
-            return CompletableFuture.completedFuture(fileContent);
+    /**
+     * The project's class name index, which answers from the platform's file name index while it is still being
+     * built; the persistent symbol index of the workspace while the IDE is indexing and outside of a project.
+     */
+    private Optional<Path> findFileNamed(String workspaceRoot, String baseClassName, String fileType) {
+        if (useClassNameIndex()) {
+            return classNameIndex.findFileNamed(baseClassName, fileType);
         }
-
-        // Report progress
-        progressIndicator.setText("The current class has a base class. Processing...");
-
-        // Attach the base class to the file content
-        return attachBaseClass(workspaceRoot, baseFileContent, fileType, cancelToken, progressIndicator)
-                .thenCompose(attachedBaseClassContent -> {
-                    // Concatenate the file content with the base class content
-                    String fullFileContent = fileContent + "\n\n" + attachedBaseClassContent;
-
-                    // Check if cancellation is requested
-                    if (cancelToken.get()) {
-                        return CompletableFuture.completedFuture(fullFileContent);
-                    }
-
-                    // Merge the class and return the result
-                    MergeClassResponse mergedClass = null;
-                    try {
-                        mergedClass = ApiService.mergeClass(fileContent);
-                        return CompletableFuture.completedFuture(mergedClass.getMergedClass());
-                    } catch (IOException e) {
-                        return CompletableFuture.completedFuture(fullFileContent);
-                    }
-                });
+        return SymbolIndex.forWorkspace(workspaceRoot).findFileNamed(baseClassName, fileType);
     }
 
-    public static String findBaseClassByContent(String workspaceRoot, String fileType, String classRegex) throws IOException {
-        Path startPath = Paths.get(workspaceRoot);
-        Pattern pattern = Pattern.compile(classRegex);  // Compile the classRegex as a Pattern
-
-        // Walk through the directory structure recursively
-        try (Stream<Path> paths = Files.walk(startPath)) {
-            for (Path path : (Iterable<Path>) paths::iterator) {
-                if (Files.isRegularFile(path) && path.toString().endsWith("." + fileType)) {
-                    String content = new String(Files.readAllBytes(path));  // Read the file content
+    private String readDeclaringFile(String workspaceRoot, String baseClassName, String fileType) throws IOException {
+        Optional<Path> declaringFile = useClassNameIndex()
+                ? classNameIndex.findDeclaringFile(baseClassName, fileType)
+                : SymbolIndex.forWorkspace(workspaceRoot).findDeclaringFile(baseClassName, fileType);
+        return declaringFile.isPresent() ? new String(Files.readAllBytes(declaringFile.get())) : null;
+    }
 
-                    if (pattern.matcher(content).find()) {
-                        return content;  // Return the content of the first match
-                    }
-                }
-            }
-        }
-        return null;  // Return null if no match is found
+    private boolean useClassNameIndex() {
+        return classNameIndex != null && !DumbService.isDumb(project);
     }
 }
 
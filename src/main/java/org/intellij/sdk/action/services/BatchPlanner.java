@@ -0,0 +1,61 @@
+package org.intellij.sdk.action.services;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Packs the functions of a file into {@code generate_unit_test_batch} requests.
+ * <p>
+ * Functions are placed largest first, each into the first batch it still fits in ("first fit decreasing"), which
+ * keeps the number of requests close to the least possible. Whatever every function of a batch shares, such as the
+ * class context, counts once per batch. A function too large to share a batch with anything stays on its own and is
+ * sent as a single request.
+ */
+public final class BatchPlanner {
+    private BatchPlanner() {
+    }
+
+    /**
+     * @param sizes       request bytes of each function
+     * @param sharedBytes bytes sent once per batch, whatever it holds
+     * @param maxBytes    request bytes a batch may not go over
+     * @param maxItems    functions a batch may not go over
+     * @return indices into {@code sizes}, grouped into batches, in source order within and across batches
+     */
+    public static List<List<Integer>> plan(List<Integer> sizes, int sharedBytes, int maxBytes, int maxItems) {
+        List<Integer> order = new ArrayList<>(sizes.size());
+        for (int i = 0; i < sizes.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparing((Integer i) -> sizes.get(i)).reversed().thenComparing(i -> i));
+
+        List<List<Integer>> batches = new ArrayList<>();
+        List<Integer> batchBytes = new ArrayList<>();
+        for (int index : order) {
+            int size = sizes.get(index);
+            int target = -1;
+            if (sharedBytes + size <= maxBytes) {
+                for (int b = 0; b < batches.size(); b++) {
+                    if (batches.get(b).size() < maxItems && batchBytes.get(b) + size <= maxBytes) {
+                        target = b;
+                        break;
+                    }
+                }
+            }
+            if (target < 0) {
+                batches.add(new ArrayList<>());
+                batchBytes.add(sharedBytes);
+                target = batches.size() - 1;
+            }
+            batches.get(target).add(index);
+            batchBytes.set(target, batchBytes.get(target) + size);
+        }
+
+        for (List<Integer> batch : batches) {
+            batch.sort(Comparator.naturalOrder());
+        }
+        batches.sort(Comparator.comparing(batch -> batch.get(0)));
+        return batches;
+    }
+}
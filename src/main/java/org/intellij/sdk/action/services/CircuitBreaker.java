@@ -0,0 +1,87 @@
+package org.intellij.sdk.action.services;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Stops calling a backend endpoint that keeps failing, so a run fails fast instead of waiting out a timeout per call.
+ * <p>
+ * After {@code failureThreshold} failures in a row the circuit opens and calls are refused for {@code openDuration}.
+ * Then a single call is let through as a probe: if it succeeds the circuit closes again, if it fails it stays open
+ * for another {@code openDuration}. Only failures that say the backend is down count, such as connect errors,
+ * timeouts and 5xx; a 429 means it is up and busy.
+ */
+public final class CircuitBreaker {
+    private static final Logger LOG = Logger.getInstance(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        // Open duration elapsed, one probe call in flight
+        HALF_OPEN
+    }
+
+    private final String endpoint;
+    private final int failureThreshold;
+    private final Duration openDuration;
+    // Guarded by this
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtNanos;
+
+    public CircuitBreaker(String endpoint, int failureThreshold, Duration openDuration) {
+        this.endpoint = endpoint;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * Throws if the circuit is open, or half open with its probe already in flight.
+     */
+    public synchronized void checkCallAllowed() throws IOException {
+        if (state == State.CLOSED) {
+            return;
+        }
+        long remainingMillis = (openedAtNanos + openDuration.toNanos() - System.nanoTime()) / 1_000_000;
+        if (state == State.OPEN && remainingMillis <= 0) {
+            state = State.HALF_OPEN;
+            return;
+        }
+        throw new IOException("The Sentra backend is not responding to " + endpoint + ", not calling it for another "
+                + Math.max(1, remainingMillis / 1000) + " s");
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            LOG.info(endpoint + " is responding again, circuit closed");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            LOG.warn(endpoint + " failed " + consecutiveFailures + " times in a row, circuit open for " + openDuration.toSeconds() + " s");
+            state = State.OPEN;
+            openedAtNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * A call ended without saying whether the backend is up, such as a client error; frees the probe slot.
+     */
+    public synchronized void onNeutral() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            // Probe again right away
+            openedAtNanos = System.nanoTime() - openDuration.toNanos();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
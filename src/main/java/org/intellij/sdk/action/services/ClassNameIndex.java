@@ -0,0 +1,274 @@
+package org.intellij.sdk.action.services;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.VirtualFileVisitor;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import com.intellij.psi.search.FilenameIndex;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Class name to file lookup for {@link BaseClassAttacher}, replacing the workspace walks of
+ * {@link CodeAnalyzerService#findBaseClassFile} and the content search it used to fall back to.
+ * <p>
+ * The project content is indexed once in the background: source files by name, and the classes each one declares.
+ * The index is then kept current from VFS change events, so lookups are hash map reads. Until the first build is done,
+ * file name lookups go to the platform's {@link FilenameIndex} when the IDE is not indexing.
+ */
+@Service(Service.Level.PROJECT)
+public final class ClassNameIndex implements Disposable {
+    private static final Logger LOG = Logger.getInstance(ClassNameIndex.class);
+    private static final Set<String> SOURCE_EXTENSIONS = Set.of("java", "cs", "ts", "tsx", "py");
+    private static final Pattern CLASS_DECLARATION = Pattern.compile("\\bclass\\s+([A-Za-z_]\\w*)");
+    // Generated bundles are not where base classes live, and reading them would dominate the build
+    private static final long MAX_FILE_SIZE = 2 * 1024 * 1024;
+
+    private final Project project;
+    // "Name.ext" -> files with that name
+    private final Map<String, Set<String>> filesByName = new ConcurrentHashMap<>();
+    // "ClassName.ext" -> files declaring that class
+    private final Map<String, Set<String>> filesByClass = new ConcurrentHashMap<>();
+    // file -> keys it contributed to filesByClass, to undo them when the file changes; sorted, so the files below a
+    // directory are one range
+    private final ConcurrentSkipListMap<String, List<String>> classesByFile = new ConcurrentSkipListMap<>();
+    // A single thread applies updates in the order the events arrived
+    private final ExecutorService updater = AppExecutorUtil.createBoundedApplicationPoolExecutor("Sentra Class Index", 1);
+    private final CompletableFuture<Void> initialBuild;
+
+    public ClassNameIndex(Project project) {
+        this.project = project;
+        project.getMessageBus().connect(this).subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+            @Override
+            public void after(@NotNull List<? extends VFileEvent> events) {
+                onFilesChanged(events);
+            }
+        });
+        this.initialBuild = CompletableFuture.runAsync(this::build, updater);
+    }
+
+    public static ClassNameIndex getInstance(Project project) {
+        return project.getService(ClassNameIndex.class);
+    }
+
+    /**
+     * Whether the initial build is done; until then lookups may block or go to the platform's indexes.
+     */
+    public boolean isReady() {
+        return initialBuild.isDone();
+    }
+
+    /**
+     * A project file named {@code className.fileType}.
+     */
+    public Optional<Path> findFileNamed(String className, String fileType) {
+        String fileName = className + "." + fileType;
+        if (!initialBuild.isDone() && !DumbService.isDumb(project)) {
+            Optional<Path> indexed = ReadAction.compute(() -> FilenameIndex.getVirtualFilesByName(fileName, GlobalSearchScope.projectScope(project))
+                    .stream()
+                    .map(file -> Paths.get(file.getPath()))
+                    .filter(Files::isRegularFile)
+                    .min(Comparator.naturalOrder()));
+            if (indexed.isPresent()) {
+                return indexed;
+            }
+        }
+        initialBuild.join();
+        return first(filesByName.get(fileName));
+    }
+
+    /**
+     * A project {@code .fileType} file that declares {@code class className}, whatever its name.
+     */
+    public Optional<Path> findDeclaringFile(String className, String fileType) {
+        initialBuild.join();
+        return first(filesByClass.get(className + "." + fileType));
+    }
+
+    private static Optional<Path> first(Set<String> paths) {
+        if (paths == null) {
+            return Optional.empty();
+        }
+        // Same answer on every run when several files match. A file deleted since it was indexed is skipped, its
+        // removal may still be on its way from the VFS
+        return paths.stream().sorted().map(Paths::get).filter(Files::isRegularFile).findFirst();
+    }
+
+    private void build() {
+        long start = System.currentTimeMillis();
+        List<String> files = new ArrayList<>();
+        ReadAction.run(() -> {
+            if (project.isDisposed()) {
+                return;
+            }
+            ProjectFileIndex fileIndex = ProjectFileIndex.getInstance(project);
+            fileIndex.iterateContent(file -> {
+                if (isSource(file)) {
+                    files.add(file.getPath());
+                }
+                return true;
+            });
+        });
+        // File contents are read outside of the read action so writes are not held up
+        for (String path : files) {
+            index(path);
+        }
+        LOG.info("Indexed " + files.size() + " source files in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Called on the EDT under the write action: only takes note of the event files, their subtrees are visited on
+     * the updater.
+     */
+    private void onFilesChanged(List<? extends VFileEvent> events) {
+        List<String> removed = new ArrayList<>();
+        List<VirtualFile> changed = new ArrayList<>();
+
+        for (VFileEvent event : events) {
+            if (event instanceof VFileDeleteEvent) {
+                removed.add(event.getPath());
+                continue;
+            }
+            if (event instanceof VFileMoveEvent moveEvent) {
+                removed.add(moveEvent.getOldPath());
+            } else if (event instanceof VFilePropertyChangeEvent propertyEvent) {
+                if (!propertyEvent.isRename()) {
+                    continue;
+                }
+                removed.add(propertyEvent.getOldPath());
+            }
+
+            VirtualFile file = event.getFile();
+            if (file != null) {
+                changed.add(file);
+            }
+        }
+
+        if (!removed.isEmpty() || !changed.isEmpty()) {
+            updater.execute(() -> {
+                removed.forEach(this::removeTree);
+                sourcesBelow(changed).forEach(this::index);
+            });
+        }
+    }
+
+    /**
+     * The project source files among {@code files} and below them: created, moved or renamed directories bring
+     * their whole subtree along.
+     */
+    private List<String> sourcesBelow(List<VirtualFile> files) {
+        List<String> sources = new ArrayList<>();
+        ReadAction.run(() -> {
+            if (project.isDisposed()) {
+                return;
+            }
+            ProjectFileIndex fileIndex = ProjectFileIndex.getInstance(project);
+            for (VirtualFile file : files) {
+                if (!file.isValid() || !fileIndex.isInContent(file)) {
+                    continue;
+                }
+                VfsUtilCore.visitChildrenRecursively(file, new VirtualFileVisitor<Void>() {
+                    @Override
+                    public boolean visitFile(@NotNull VirtualFile child) {
+                        if (isSource(child)) {
+                            sources.add(child.getPath());
+                        }
+                        return !fileIndex.isExcluded(child);
+                    }
+                });
+            }
+        });
+        return sources;
+    }
+
+    private void index(String path) {
+        remove(path);
+        String fileName = Paths.get(path).getFileName().toString();
+        String extension = CodeAnalyzerService.getFileExtension(fileName);
+        filesByName.computeIfAbsent(fileName, key -> ConcurrentHashMap.newKeySet()).add(path);
+
+        List<String> classKeys = new ArrayList<>();
+        try {
+            Path file = Paths.get(path);
+            if (Files.size(file) <= MAX_FILE_SIZE) {
+                Matcher matcher = CLASS_DECLARATION.matcher(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+                while (matcher.find()) {
+                    classKeys.add(matcher.group(1) + "." + extension);
+                }
+            }
+        } catch (IOException e) {
+            // Deleted in the meantime, its delete event will follow
+            LOG.debug("Failed to index " + path, e);
+        }
+        for (String key : classKeys) {
+            filesByClass.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(path);
+        }
+        classesByFile.put(path, classKeys);
+    }
+
+    private void remove(String path) {
+        removeFrom(filesByName, Paths.get(path).getFileName().toString(), path);
+        List<String> classKeys = classesByFile.remove(path);
+        if (classKeys != null) {
+            for (String key : classKeys) {
+                removeFrom(filesByClass, key, path);
+            }
+        }
+    }
+
+    /**
+     * Removes {@code path} and, if it was a directory, every indexed file below it.
+     */
+    private void removeTree(String path) {
+        if (classesByFile.containsKey(path)) {
+            remove(path);
+        }
+        String prefix = path + "/";
+        for (String indexed : new ArrayList<>(classesByFile.subMap(prefix, prefix + '\uffff').keySet())) {
+            remove(indexed);
+        }
+    }
+
+    private static void removeFrom(Map<String, Set<String>> map, String key, String path) {
+        map.computeIfPresent(key, (k, paths) -> {
+            paths.remove(path);
+            return paths.isEmpty() ? null : paths;
+        });
+    }
+
+    private static boolean isSource(VirtualFile file) {
+        return !file.isDirectory() && SOURCE_EXTENSIONS.contains(file.getExtension());
+    }
+
+    @Override
+    public void dispose() {
+        initialBuild.cancel(false);
+        updater.shutdownNow();
+    }
+}
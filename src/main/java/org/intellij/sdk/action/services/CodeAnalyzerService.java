@@ -1,5 +1,9 @@
 package org.intellij.sdk.action.services;
 
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.Pair;
+
 import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
@@ -11,18 +15,39 @@ import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
 public class CodeAnalyzerService {
+    private static final Pattern FUNCTION_NAME_PATTERN = Pattern.compile("(\\w+)\\s*(?:<(?:[^()<>]|<[^()<>]*>)*>\\s*)?\\(");
+    private static final Pattern PY_FUNCTION_NAME_PATTERN = Pattern.compile("\\s*(?:async\\s+)?def\\s+(\\w+)");
+    private static final Pattern IDENTIFIER_PATTERN = Pattern.compile("[A-Za-z_$][\\w$]*");
+    private static final Pattern SUPER_REFERENCE_PATTERN = Pattern.compile("(?<![.\\w$])(?:super|base)\\b");
+    private static final Pattern MEMBER_REFERENCE_PATTERN = Pattern.compile("(?<![.\\w$])(?:this|self)\\s*\\.\\s*([A-Za-z_$][\\w$]*)");
+    private static final Pattern UNQUALIFIED_CALL_PATTERN = Pattern.compile("(?<![.\\w$])(?<!new\\s)([A-Za-z_$][\\w$]*)\\s*\\(");
+
     public enum Framework {
-        Angular, React, Unknown
+        Angular, React, Vue, Svelte, Unknown
     }
 
     public static Framework detectFramework(String codeBlock) {
-        if (codeBlock.matches("(?s).*import\\s+\\{[^}]*}.*@angular/.*")) return Framework.Angular;
-        if (codeBlock.matches("(?s).*@(Component|NgModule|Injectable|Directive|Pipe)\\(.*")) return Framework.Angular;
-        if (codeBlock.matches("(?s).*\\bng(Model|If|For)\\b.*")) return Framework.Angular;
-        if (codeBlock.matches("(?s).*(import\\s+React|from\\s+\"react\"|from\\s+'react').*")) return Framework.React;
-        if (codeBlock.matches("(?s).*use(State|Effect|Context|Reducer|Memo).*")) return Framework.React;
-        if (codeBlock.matches("(?s).*<\\s*[A-Z][A-Za-z]*[^>]*>.*import\\s+React.*")) return Framework.React;
-        return Framework.Unknown;
+        return FrameworkDetector.detect(codeBlock);
+    }
+
+    /**
+     * {@link #detectFramework(String)} for a whole document, scanned once per modification stamp.
+     * Call inside a read action when not on the EDT.
+     */
+    public static Framework detectFramework(Document document) {
+        Pair<Long, Framework> cached = document.getUserData(FrameworkKey.KEY);
+        long stamp = document.getModificationStamp();
+        if (cached != null && cached.first == stamp) {
+            return cached.second;
+        }
+        Framework framework = FrameworkDetector.detect(document.getCharsSequence());
+        document.putUserData(FrameworkKey.KEY, Pair.create(stamp, framework));
+        return framework;
+    }
+
+    // Holder, so the text-only methods of this class can be used without the platform on the classpath
+    private static final class FrameworkKey {
+        static final Key<Pair<Long, Framework>> KEY = Key.create("sentra.framework");
     }
 
     public static List<String> extractDependencies(String fileType, String content) {
@@ -55,7 +80,10 @@ public class CodeAnalyzerService {
 
     public static String extractClassName(String fileType, String classNameLine) {
         if (fileType.equals("ts") || fileType.equals("tsx")) {
-            String[] parts = classNameLine.split("\\s+");
+            if (classNameLine.isBlank()) {
+                return "";
+            }
+            String[] parts = classNameLine.trim().split("\\s+");
             return parts[0].equals("export") ? parts[2] : parts[1];
         }
 
@@ -64,46 +92,136 @@ public class CodeAnalyzerService {
     }
 
     public static List<String> extractCodeFunctions(String fileType, String className, String content) {
-        String regex = "";
-
-        if ("java".equals(fileType)) {
-            regex = "(?:(public|protected|private|static|final|synchronized|abstract|native|transient|volatile)\\s+)+"
-                    + "(?:<[^<>]+>\\s+)?[\\w<>\\[\\],?]+\\s+(?!"+className+"\\b)[A-Za-z_]\\w*\\s*\\([^)]*\\)"
-                    + "(?:\\s*throws\\s+[\\w.,\\s]+)?\\s*\\{(?:[^{}]|\\{(?:[^{}]|\\{[^{}]*\\})*\\})*\\}";
-        } else if ("cs".equals(fileType)) {
-            regex = "(?:(public|protected|private|static|sealed|abstract|override|virtual|internal|extern|partial|async|unsafe)\\s+)*"
-                    + "[\\w<>\\[\\],?]+(?:<[^<>]+>)?\\s+(?!"+className+"\\b)[A-Za-z_]\\w*\\s*\\([^)]*\\)\\s*"
-                    + "(?:=>\\s*[^;]+;|\\{(?:[^{}]|\\{(?:[^{}]|\\{[^{}]*\\})*\\})*\\})";
-        } else if ("py".equals(fileType)) {
-            regex = "(?<=\\n|^)\\s*def\\s+(?!__init__\\b)([a-zA-Z_][a-zA-Z0-9_]*)\\s*\\([^)]*\\)\\s*:(.*?)\\n(?=\\s*(?:#|@|def\\s+|\\s*$))";
-        }
-
-        Matcher matcher = Pattern.compile(regex, Pattern.DOTALL).matcher(content);
-        List<String> results = new ArrayList<>();
-        while (matcher.find()) {
-            results.add(matcher.group());
+        List<FunctionSpan> spans = extractFunctionSpans(fileType, className, content);
+        List<String> results = new ArrayList<>(spans.size());
+        for (FunctionSpan span : spans) {
+            results.add(content.substring(span.start(), span.end()));
         }
         return results;
     }
 
+    /**
+     * Offsets of the functions declared in {@code content}, in source order. See {@link FunctionExtractor}.
+     */
+    public static List<FunctionSpan> extractFunctionSpans(String fileType, String className, CharSequence content) {
+        return FunctionExtractor.extract(fileType, className, content);
+    }
+
     public static String extractFunctionName(String fileType, String lineContent, boolean isReact) {
         if (fileType.equals("java") || fileType.equals("cs")) {
-            Matcher matcher = Pattern.compile("[\\w<>,?()\\s]+\\s+(\\w+)\\s*\\(").matcher(lineContent);
-            return matcher.find() ? matcher.group(1) : "";
+            // Only look at the declaration, the body may contain calls that look like one
+            String declaration = declarationOf(lineContent);
+            Matcher matcher = FUNCTION_NAME_PATTERN.matcher(declaration);
+            while (matcher.find()) {
+                if (matcher.start() == 0 || declaration.charAt(matcher.start() - 1) != '@') {
+                    return matcher.group(1);
+                }
+            }
+            return "";
         }
 
         if ("ts".equals(fileType) || "tsx".equals(fileType)) {
-            return isReact ? lineContent.split("=")[0].trim() : lineContent.split("\\(")[0].trim();
+            String header = declarationOf(lineContent).replaceAll("@\\w+(?:\\([^)]*\\))?", " ");
+            int paren = header.indexOf('(');
+            int assign = header.indexOf('=');
+            if (assign >= 0 && (paren < 0 || assign < paren)) {
+                // const Counter: FC<Props> = (...) => { ... }
+                header = header.substring(0, assign).split(":")[0];
+            } else if (paren >= 0) {
+                header = header.substring(0, paren);
+            } else if (isReact) {
+                header = lineContent.split("=")[0];
+            }
+            return lastIdentifier(header.replaceAll("<[^<>]*>\\s*$", ""));
         }
 
         if ("py".equals(fileType)) {
-            String[] parts = lineContent.split(" ");
-            return parts[0].contains("def") && parts.length > 1 ? parts[1].split("\\(")[0] : "";
+            Matcher matcher = PY_FUNCTION_NAME_PATTERN.matcher(lineContent);
+            return matcher.lookingAt() ? matcher.group(1) : "";
         }
 
         return "";
     }
 
+    /**
+     * The part of a function before its body, i.e. up to the first opening brace or arrow.
+     */
+    private static String declarationOf(String function) {
+        int end = function.length();
+        int brace = function.indexOf('{');
+        if (brace >= 0) {
+            end = brace;
+        }
+        int arrow = function.indexOf("=>");
+        if (arrow >= 0 && arrow < end) {
+            end = arrow;
+        }
+        return function.substring(0, end);
+    }
+
+    private static String lastIdentifier(String text) {
+        int end = text.length();
+        while (end > 0 && !Character.isJavaIdentifierPart(text.charAt(end - 1))) {
+            end--;
+        }
+        int start = end;
+        while (start > 0 && (Character.isJavaIdentifierPart(text.charAt(start - 1)) || text.charAt(start - 1) == '#')) {
+            start--;
+        }
+        return text.substring(start, end);
+    }
+
+    /**
+     * Identifiers the file declares itself: everything outside of function bodies and the function declarations.
+     */
+    public static Set<String> extractDeclaredNames(String content, List<FunctionSpan> functions) {
+        StringBuilder declarations = new StringBuilder(content.length());
+        int previousEnd = 0;
+        for (FunctionSpan function : functions) {
+            declarations.append(content, previousEnd, function.start()).append('\n');
+            declarations.append(declarationOf(function.text(content).toString())).append('\n');
+            previousEnd = function.end();
+        }
+        declarations.append(content, previousEnd, content.length());
+
+        Set<String> names = new HashSet<>();
+        Matcher matcher = IDENTIFIER_PATTERN.matcher(declarations);
+        while (matcher.find()) {
+            names.add(matcher.group());
+        }
+        return names;
+    }
+
+    /**
+     * Whether {@code function} refers to members that are not in {@code declaredNames}, i.e. can only come from a base
+     * class: {@code super}/{@code base}, {@code this.x}/{@code self.x}, and in Java and C# unqualified method calls.
+     * Errs on the side of yes, as such functions only wait for the class hierarchy to be resolved.
+     */
+    public static boolean usesInheritedMembers(String fileType, String function, Set<String> declaredNames) {
+        String body = function.substring(declarationOf(function).length());
+        if (SUPER_REFERENCE_PATTERN.matcher(body).find()) {
+            return true;
+        }
+        Matcher memberReference = MEMBER_REFERENCE_PATTERN.matcher(body);
+        while (memberReference.find()) {
+            if (!declaredNames.contains(memberReference.group(1))) {
+                return true;
+            }
+        }
+        if (!fileType.equals("java") && !fileType.equals("cs")) {
+            // Unqualified calls are module functions and imports there
+            return false;
+        }
+        Matcher call = UNQUALIFIED_CALL_PATTERN.matcher(body);
+        while (call.find()) {
+            String name = call.group(1);
+            if (!FunctionExtractor.NON_FUNCTION_NAMES.contains(name) && !declaredNames.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public static String getUniqueFunctionName(List<String> functionNames, String newFunction) {
         Map<String, Integer> nameCount = new HashMap<>();
 
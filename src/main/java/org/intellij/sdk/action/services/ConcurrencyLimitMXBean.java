@@ -0,0 +1,20 @@
+package org.intellij.sdk.action.services;
+
+/**
+ * An {@link AdaptiveConcurrencyLimiter} as seen from JConsole or any other JMX client.
+ */
+public interface ConcurrencyLimitMXBean {
+    String getEndpoint();
+
+    int getLimit();
+
+    int getInFlight();
+
+    int getQueued();
+
+    long getRttBaselineMillis();
+
+    long getDrops();
+
+    long getRetryAfterRemainingMillis();
+}
@@ -0,0 +1,689 @@
+package org.intellij.sdk.action.services;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Builds the code sent with each function of a file: only the imports, fields, constants and helper functions the
+ * function refers to, without comments and with whitespace collapsed, see {@link ApiConfig.CONTEXT_SLICING}. A class
+ * context sent inline is cut down the same way to what the functions of its request refer to, see {@link #slice}.
+ * <p>
+ * References are found by name. A helper, another function of the file, is kept if the function calls it directly
+ * or through {@code this}/{@code self}. Next to a function of the same file a helper is sent as its declaration
+ * only, its body being the subject of its own request; in a class context, helpers up to {@link #MAX_HELPER_CHARS}
+ * are sent whole, so a test can tell what an inherited method returns. A field or constant is kept if the function,
+ * a kept helper or another kept field names it. An import is kept if anything kept names the type or module it
+ * brings in; wildcard imports and C# namespaces cannot be told apart that way and are always kept. Names only ever
+ * add code, so a name that happens to match costs a few bytes and nothing the function uses is left out.
+ * <p>
+ * Declarations are found with the {@link FunctionExtractor} lexer, so comments and strings never confuse it.
+ * Members of nested types and initializer blocks are not part of the slice.
+ */
+public final class ContextSlicer {
+    private static final int MAX_HELPER_CHARS = 1024;
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_$][\\w$]*");
+    private static final Pattern UNQUALIFIED = Pattern.compile("(?<![.\\w$#])[A-Za-z_$][\\w$]*");
+    private static final Pattern MEMBER = Pattern.compile("(?:(?<![.\\w$])(?:this|self)\\s*\\.\\s*|::\\s*)([A-Za-z_$][\\w$]*)");
+    // A whole import statement, parenthesized and continued lines included
+    private static final Pattern PY_IMPORT = Pattern.compile(
+            "^[ \\t]*(?:from[ \\t]+[\\w.]+[ \\t]+import[ \\t]*\\([^)]*\\)|(?:from[ \\t]+[\\w.]+[ \\t]+)?import[ \\t]+[^\\n#;\\\\]+(?:\\\\\\R[^\\n#;\\\\]*)*)",
+            Pattern.MULTILINE);
+    private static final Pattern PY_ASSIGNMENT = Pattern.compile("([A-Za-z_]\\w*)\\s*(?::[^=\\n]+)?=(?!=)");
+    private static final Set<String> TYPE_KEYWORDS = Set.of("class", "interface", "enum", "record", "struct");
+    private static final Set<String> NAMESPACE_KEYWORDS = Set.of("namespace", "module");
+    private static final Set<String> IMPORT_KEYWORDS = Set.of("import", "from", "type", "as");
+    private static final Set<String> NON_FIELD_KEYWORDS = Set.of("import", "using", "package");
+
+    private final String fileType;
+    private final String classHeader;
+    private final List<String> allImports;
+    private final List<Import> imports;
+    private final List<Member> fields;
+    private final List<Member> functions;
+    private final List<Member> declarations;
+
+    /**
+     * @param functions the functions declared in {@code content}, as found by {@link FunctionExtractor}
+     * @param imports   the imports of {@code content}, one statement per entry; Python imports are read from
+     *                  {@code content} itself, as the regex based extraction cuts {@code as} clauses off
+     */
+    public ContextSlicer(String fileType, String content, List<FunctionSpan> functions, List<String> imports) {
+        this(fileType, content, "", functions, imports);
+    }
+
+    private ContextSlicer(String fileType, String content, String classHeader, List<FunctionSpan> functions, List<String> imports) {
+        this.fileType = fileType;
+        this.classHeader = classHeader;
+        this.allImports = imports.stream().map(String::trim).toList();
+        if (!ApiConfig.CONTEXT_SLICING.ENABLED) {
+            this.imports = List.of();
+            this.fields = List.of();
+            this.functions = List.of();
+            this.declarations = List.of();
+            return;
+        }
+        this.imports = "py".equals(fileType) ? pythonImports(content) : parseImports(fileType, allImports);
+        this.fields = "py".equals(fileType) ? pythonFields(content, functions) : fields(fileType, content, functions);
+        List<Member> members = new ArrayList<>(functions.size());
+        List<Member> declarations = new ArrayList<>(functions.size());
+        for (FunctionSpan span : functions) {
+            String text = span.text(content).toString();
+            String name = CodeAnalyzerService.extractFunctionName(fileType, text, false);
+            if (name != null && !name.isEmpty()) {
+                members.add(new Member(fileType, name, text, Shape.WHOLE_IF_SMALL));
+                declarations.add(new Member(fileType, name, text, Shape.DECLARATION));
+            }
+        }
+        this.functions = members;
+        this.declarations = declarations;
+    }
+
+    /**
+     * A slicer for a whole class as text, such as a class merged with its base classes.
+     */
+    public static ContextSlicer of(String fileType, String content) {
+        String header = CodeAnalyzerService.extractClassNameCodeLine(fileType, content);
+        String className = CodeAnalyzerService.extractClassName(fileType, header);
+        return new ContextSlicer(fileType, content, header, CodeAnalyzerService.extractFunctionSpans(fileType, className, content),
+                CodeAnalyzerService.extractDependencies(fileType, content));
+    }
+
+    /**
+     * The code to send for {@code function}: the imports, {@code header} and the members it refers to, followed by
+     * the function and the brace closing {@code header}. Python functions go without a header, as they always have.
+     */
+    public String codeContent(@Nullable String header, String function) {
+        boolean python = "py".equals(fileType);
+        if (!ApiConfig.CONTEXT_SLICING.ENABLED) {
+            String imports = String.join("\n", allImports);
+            return python ? imports + "\n" + function : imports + "\n" + header + "\n    " + function + "\n}";
+        }
+        String body = strip(fileType, function);
+        return render(python ? null : header, references(body), declarations, function, body);
+    }
+
+    /**
+     * The class this slicer was built {@link #of} with only the imports, fields and functions that {@code codes}
+     * refer to.
+     */
+    public String slice(List<String> codes) {
+        Set<String> names = new HashSet<>();
+        for (String code : codes) {
+            names.addAll(references(code));
+        }
+        return render("py".equals(fileType) || classHeader.isEmpty() ? null : classHeader, names, functions, null, null);
+    }
+
+    private String render(@Nullable String header, Set<String> names, List<Member> candidates, @Nullable String function, @Nullable String body) {
+        List<Member> helpers = new ArrayList<>();
+        for (Member helper : candidates) {
+            if (names.contains(helper.name) && !helper.source.equals(function)) {
+                helpers.add(helper);
+            }
+        }
+        for (Member helper : helpers) {
+            names.addAll(helper.references());
+        }
+        // Fields are followed to the end: constants are often built from other constants
+        boolean[] kept = new boolean[fields.size()];
+        for (boolean added = true; added; ) {
+            added = false;
+            for (int i = 0; i < fields.size(); i++) {
+                if (!kept[i] && names.contains(fields.get(i).name)) {
+                    kept[i] = true;
+                    names.addAll(fields.get(i).references());
+                    added = true;
+                }
+            }
+        }
+
+        StringBuilder code = new StringBuilder(body != null ? body.length() + 256 : 256);
+        for (Import anImport : imports) {
+            if (anImport.names().isEmpty() || !Collections.disjoint(anImport.names(), names)) {
+                code.append(anImport.text()).append('\n');
+            }
+        }
+        String indent = "";
+        if (header != null) {
+            code.append(header).append('\n');
+            indent = "    ";
+        }
+        for (int i = 0; i < fields.size(); i++) {
+            if (kept[i]) {
+                code.append(indent).append(fields.get(i).text()).append('\n');
+            }
+        }
+        for (Member helper : helpers) {
+            code.append(indent).append(helper.text()).append('\n');
+        }
+        if (body != null) {
+            code.append(indent).append(body).append('\n');
+        }
+        if (header != null) {
+            code.append('}');
+        } else if (code.length() > 0) {
+            code.setLength(code.length() - 1);
+        }
+        return code.toString();
+    }
+
+    private enum Shape {
+        WHOLE, WHOLE_IF_SMALL, DECLARATION
+    }
+
+    /**
+     * A field, constant or function of the file. Its text, stripped of comments, and the names in it are only worked
+     * out once it is kept; slices running at the same time may both do so, to the same result.
+     */
+    private static final class Member {
+        final String name;
+        final String source;
+        private final String fileType;
+        private final Shape shape;
+        private volatile String text;
+        private volatile Set<String> references;
+
+        Member(String fileType, String name, String source, Shape shape) {
+            this.fileType = fileType;
+            this.name = name;
+            this.source = source;
+            this.shape = shape;
+        }
+
+        String text() {
+            String stripped = text;
+            if (stripped == null) {
+                stripped = strip(fileType, source);
+                if (shape == Shape.DECLARATION || (shape == Shape.WHOLE_IF_SMALL && stripped.length() > MAX_HELPER_CHARS)) {
+                    stripped = declaration(fileType, stripped);
+                }
+                text = stripped;
+            }
+            return stripped;
+        }
+
+        Set<String> references() {
+            Set<String> names = references;
+            if (names == null) {
+                names = ContextSlicer.references(text());
+                references = names;
+            }
+            return names;
+        }
+    }
+
+    /**
+     * An import statement and the names it brings in; none if it cannot be told whether it is used.
+     */
+    private record Import(String text, Set<String> names) {
+    }
+
+    /**
+     * Names {@code code} refers to: unqualified identifiers and members accessed through {@code this}/{@code self}.
+     */
+    private static Set<String> references(String code) {
+        Set<String> names = new HashSet<>();
+        Matcher unqualified = UNQUALIFIED.matcher(code);
+        while (unqualified.find()) {
+            names.add(unqualified.group());
+        }
+        Matcher member = MEMBER.matcher(code);
+        while (member.find()) {
+            names.add(member.group(1));
+        }
+        return names;
+    }
+
+    private static List<Import> parseImports(String fileType, List<String> statements) {
+        List<Import> imports = new ArrayList<>(statements.size());
+        for (String statement : statements) {
+            String line = statement.trim();
+            if (!line.isEmpty()) {
+                imports.add(new Import(line, importedNames(fileType, line)));
+            }
+        }
+        return imports;
+    }
+
+    private static List<Import> pythonImports(String content) {
+        List<Import> imports = new ArrayList<>();
+        Matcher statement = PY_IMPORT.matcher(content);
+        while (statement.find()) {
+            // Line continuations and the line breaks of parenthesized names
+            parsePythonImport(statement.group().replaceAll("\\\\?\\s+", " ").trim(), imports);
+        }
+        return imports;
+    }
+
+    private static Set<String> importedNames(String fileType, String line) {
+        String path = line.replaceFirst(";\\s*$", "");
+        switch (fileType) {
+            case "java": {
+                String target = path.replaceFirst("^import\\s+(?:static\\s+)?", "").trim();
+                String name = target.substring(target.lastIndexOf('.') + 1);
+                return name.equals("*") ? Set.of() : Set.of(name);
+            }
+            case "cs": {
+                // Only aliases name something, a namespace brings in types we do not know of
+                Matcher alias = Pattern.compile("^using\\s+(\\w+)\\s*=").matcher(path);
+                return alias.find() ? Set.of(alias.group(1)) : Set.of();
+            }
+            case "ts":
+            case "tsx": {
+                int from = path.lastIndexOf(" from ");
+                if (from < 0) {
+                    // Side-effect import
+                    return Set.of();
+                }
+                Set<String> names = new HashSet<>();
+                Matcher identifier = IDENTIFIER.matcher(path.substring(0, from));
+                while (identifier.find()) {
+                    if (!IMPORT_KEYWORDS.contains(identifier.group())) {
+                        names.add(identifier.group());
+                    }
+                }
+                return names;
+            }
+            default:
+                return Set.of();
+        }
+    }
+
+    private static void parsePythonImport(String line, List<Import> imports) {
+        if (line.startsWith("from ")) {
+            int keyword = line.indexOf(" import", 5);
+            String module = line.substring(0, keyword);
+            // One import per name, so unused names can be dropped
+            for (String name : line.substring(keyword + 7).replaceAll("[()]", "").split(",")) {
+                name = name.trim();
+                if (name.isEmpty()) {
+                    continue;
+                }
+                String bound = name.contains(" as ") ? name.substring(name.indexOf(" as ") + 4) : name;
+                imports.add(new Import(module + " import " + name, bound.equals("*") ? Set.of() : Set.of(bound)));
+            }
+        } else if (line.startsWith("import ")) {
+            for (String module : line.substring(7).split(",")) {
+                module = module.trim();
+                if (module.isEmpty()) {
+                    continue;
+                }
+                String bound = module.contains(" as ")
+                        ? module.substring(module.indexOf(" as ") + 4)
+                        : module.split("\\.")[0];
+                imports.add(new Import("import " + module, Set.of(bound)));
+            }
+        }
+    }
+
+    /**
+     * Declarations outside of functions in the main type or at module level of a brace language file, each up to
+     * its semicolon (or the end of its line in TypeScript).
+     */
+    private static List<Member> fields(String fileType, String content, List<FunctionSpan> functions) {
+        FunctionExtractor.Lexer lexer = new FunctionExtractor.Lexer(fileType, content);
+        List<Member> fields = new ArrayList<>();
+        // Per open block: true if its declarations are collected, i.e. a namespace or the main type
+        Deque<Boolean> blocks = new ArrayDeque<>();
+        boolean typeSeen = false;
+        int function = 0;
+        int start = -1;
+        int assign = -1;
+        int colon = -1;
+        int parens = 0;
+        int braces = 0;
+        char previous = 0;
+        int pos = 0;
+        int n = content.length();
+        while (pos < n) {
+            if (function < functions.size() && pos >= functions.get(function).start()) {
+                // A function ends whatever came before it, such as its annotations
+                pos = Math.max(pos, functions.get(function++).end());
+                start = -1;
+                continue;
+            }
+            char c = content.charAt(pos);
+            if (Character.isWhitespace(c)) {
+                if (c == '\n' && lexer.ts && start >= 0 && parens == 0 && braces == 0
+                        && "=,:(|&?+-*/.<[".indexOf(previous) < 0 && ".=?:|&)".indexOf(lexer.nextSignificant(pos)) < 0) {
+                    // Automatic semicolon insertion
+                    addField(fileType, content, start, pos, assign, colon, blocks, fields);
+                    start = -1;
+                }
+                pos++;
+                continue;
+            }
+            int skipped = lexer.skipNonCode(pos, previous, false);
+            if (skipped >= 0) {
+                if (!lexer.isCommentStart(pos) && start < 0) {
+                    start = pos;
+                    assign = colon = -1;
+                }
+                pos = Math.max(skipped, pos + 1);
+                previous = '"';
+                continue;
+            }
+            if (start < 0 && c != ';' && c != '}' && c != '{') {
+                start = pos;
+                assign = colon = -1;
+                parens = braces = 0;
+            }
+            if (lexer.isIdentifierStart(c)) {
+                pos = lexer.identifierEnd(pos);
+                previous = 'a';
+                continue;
+            }
+            switch (c) {
+                case '(':
+                case '[':
+                    parens++;
+                    break;
+                case ')':
+                case ']':
+                    parens = Math.max(0, parens - 1);
+                    break;
+                case '=':
+                    if (parens == 0 && braces == 0 && assign < 0 && "=!<>".indexOf(previous) < 0) {
+                        assign = pos;
+                    }
+                    break;
+                case ':':
+                    if (parens == 0 && braces == 0 && colon < 0) {
+                        colon = pos;
+                    }
+                    break;
+                case '{':
+                    String declaration = start >= 0 ? content.substring(start, pos) : "";
+                    if (start >= 0 && (assign >= 0 || parens > 0 || braces > 0 || isImport(declaration))) {
+                        // Array initializer, anonymous class or lambda in an initializer, TypeScript named imports
+                        braces++;
+                        break;
+                    }
+                    boolean collected = !blocks.contains(false);
+                    if (containsWord(declaration, NAMESPACE_KEYWORDS)) {
+                        blocks.push(collected);
+                    } else if (containsWord(declaration, TYPE_KEYWORDS) && !typeSeen && collected) {
+                        typeSeen = true;
+                        blocks.push(true);
+                    } else {
+                        // Nested types, initializer blocks, properties
+                        blocks.push(false);
+                    }
+                    start = -1;
+                    break;
+                case '}':
+                    if (braces > 0) {
+                        braces--;
+                    } else {
+                        if (!blocks.isEmpty()) {
+                            blocks.pop();
+                        }
+                        start = -1;
+                    }
+                    break;
+                case ';':
+                    if (parens == 0 && braces == 0) {
+                        if (start >= 0) {
+                            addField(fileType, content, start, pos + 1, assign, colon, blocks, fields);
+                        }
+                        start = -1;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            previous = c;
+            pos++;
+        }
+        return fields;
+    }
+
+    private static void addField(String fileType, String content, int start, int end, int assign, int colon,
+                                 Deque<Boolean> blocks, List<Member> fields) {
+        if (blocks.contains(false)) {
+            return;
+        }
+        int nameEnd = end;
+        if (assign >= 0) {
+            nameEnd = assign;
+        }
+        if (colon >= 0 && ("ts".equals(fileType) || "tsx".equals(fileType)) && colon < nameEnd) {
+            nameEnd = colon;
+        }
+        String name = null;
+        Matcher identifier = IDENTIFIER.matcher(content).region(start, nameEnd);
+        while (identifier.find()) {
+            if (name == null && NON_FIELD_KEYWORDS.contains(identifier.group())) {
+                // import, using and package statements are not fields
+                return;
+            }
+            name = identifier.group();
+        }
+        if (name != null) {
+            fields.add(new Member(fileType, name, content.substring(start, end), Shape.WHOLE));
+        }
+    }
+
+    private static boolean isImport(String declaration) {
+        String trimmed = declaration.trim();
+        return trimmed.equals("export") || trimmed.equals("import") || trimmed.startsWith("import ");
+    }
+
+    private static boolean containsWord(String text, Set<String> words) {
+        Matcher identifier = IDENTIFIER.matcher(text);
+        while (identifier.find()) {
+            if (words.contains(identifier.group())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Assignments outside of functions at module or class level of a Python file, one logical line each.
+     */
+    private static List<Member> pythonFields(String content, List<FunctionSpan> functions) {
+        // Deeper lines are in __init__ or other blocks that are not functions we extract
+        int maxIndent = functions.isEmpty() ? 0 : Integer.MAX_VALUE;
+        for (FunctionSpan function : functions) {
+            maxIndent = Math.min(maxIndent, function.start() - lineStart(content, function.start()));
+        }
+        List<Member> fields = new ArrayList<>();
+        int function = 0;
+        int pos = 0;
+        int n = content.length();
+        while (pos < n) {
+            int end = logicalLineEnd(content, pos);
+            while (function < functions.size() && functions.get(function).end() <= pos) {
+                function++;
+            }
+            boolean inFunction = function < functions.size() && functions.get(function).start() <= pos;
+            int code = pos;
+            while (code < end && (content.charAt(code) == ' ' || content.charAt(code) == '\t')) {
+                code++;
+            }
+            if (!inFunction && code - pos <= maxIndent) {
+                Matcher assignment = PY_ASSIGNMENT.matcher(content).region(code, end);
+                if (assignment.lookingAt()) {
+                    String source = content.substring(code, end).stripTrailing();
+                    fields.add(new Member("py", assignment.group(1), source, Shape.WHOLE));
+                }
+            }
+            pos = end < n ? end + 1 : n;
+        }
+        return fields;
+    }
+
+    private static int lineStart(String content, int pos) {
+        int p = pos;
+        while (p > 0 && content.charAt(p - 1) != '\n') {
+            p--;
+        }
+        return p;
+    }
+
+    /**
+     * Offset of the newline ending the logical line at {@code pos}, following brackets and line continuations.
+     */
+    private static int logicalLineEnd(String content, int pos) {
+        int depth = 0;
+        int p = pos;
+        int n = content.length();
+        while (p < n) {
+            char c = content.charAt(p);
+            if (c == '#') {
+                while (p < n && content.charAt(p) != '\n') {
+                    p++;
+                }
+                continue;
+            }
+            if (c == '\'' || c == '"') {
+                p = skipPythonString(content, p);
+                continue;
+            }
+            if (c == '\\' && p + 1 < n && content.charAt(p + 1) == '\n') {
+                p += 2;
+                continue;
+            }
+            if (c == '\n' && depth == 0) {
+                return p;
+            }
+            if (c == '(' || c == '[' || c == '{') {
+                depth++;
+            } else if ((c == ')' || c == ']' || c == '}') && depth > 0) {
+                depth--;
+            }
+            p++;
+        }
+        return n;
+    }
+
+    private static int skipPythonString(CharSequence s, int p) {
+        int n = s.length();
+        char quote = s.charAt(p);
+        boolean triple = p + 2 < n && s.charAt(p + 1) == quote && s.charAt(p + 2) == quote;
+        int q = p + (triple ? 3 : 1);
+        while (q < n) {
+            char c = s.charAt(q);
+            if (c == '\\') {
+                q += 2;
+                continue;
+            }
+            if (c == quote && (!triple || (q + 2 < n && s.charAt(q + 1) == quote && s.charAt(q + 2) == quote))) {
+                return q + (triple ? 3 : 1);
+            }
+            if (!triple && c == '\n') {
+                return q;
+            }
+            q++;
+        }
+        return n;
+    }
+
+    /**
+     * {@code code} without comments, trailing whitespace and blank lines, and with runs of whitespace within a line
+     * collapsed to one space. Indentation and the contents of strings are kept as they are.
+     */
+    static String strip(String fileType, CharSequence code) {
+        boolean python = "py".equals(fileType);
+        FunctionExtractor.Lexer lexer = new FunctionExtractor.Lexer(fileType, code);
+        StringBuilder out = new StringBuilder(code.length());
+        char previous = 0;
+        boolean previousIsKeyword = false;
+        boolean lineStart = true;
+        int pos = 0;
+        int n = code.length();
+        while (pos < n) {
+            char c = code.charAt(pos);
+            if (c == '\n' || c == '\r') {
+                trimTrailing(out);
+                if (out.length() > 0 && out.charAt(out.length() - 1) != '\n') {
+                    out.append('\n');
+                }
+                lineStart = true;
+                pos++;
+                continue;
+            }
+            if (c == ' ' || c == '\t' || c == '\f') {
+                if (lineStart) {
+                    out.append(c);
+                } else if (out.length() > 0 && out.charAt(out.length() - 1) != ' ') {
+                    out.append(' ');
+                }
+                pos++;
+                continue;
+            }
+            lineStart = false;
+            int end;
+            boolean comment;
+            if (python) {
+                comment = c == '#';
+                end = comment ? lexer.endOfLine(pos) : c == '\'' || c == '"' ? skipPythonString(code, pos) : -1;
+            } else {
+                comment = lexer.isCommentStart(pos);
+                end = lexer.skipNonCode(pos, previous, previousIsKeyword);
+            }
+            if (end >= 0) {
+                end = Math.max(end, pos + 1);
+                if (comment) {
+                    // Keeps the tokens on both sides of a block comment apart
+                    if (out.length() > 0 && !Character.isWhitespace(out.charAt(out.length() - 1))) {
+                        out.append(' ');
+                    }
+                } else {
+                    out.append(code, pos, end);
+                    previous = '"';
+                    previousIsKeyword = false;
+                }
+                pos = end;
+                continue;
+            }
+            if (lexer.isIdentifierStart(c)) {
+                end = lexer.identifierEnd(pos);
+                out.append(code, pos, end);
+                previous = 'a';
+                previousIsKeyword = lexer.ts && FunctionExtractor.REGEX_PRECEDING_KEYWORDS.contains(code.subSequence(pos, end).toString());
+                pos = end;
+                continue;
+            }
+            out.append(c);
+            previous = c;
+            previousIsKeyword = false;
+            pos++;
+        }
+        trimTrailing(out);
+        return out.toString();
+    }
+
+    /**
+     * A function without its body: for Python the {@code def} line, for the brace languages everything up to the
+     * body or arrow, ended with a semicolon.
+     */
+    private static String declaration(String fileType, String function) {
+        if ("py".equals(fileType)) {
+            return function.substring(0, logicalLineEnd(function, 0)).stripTrailing() + " ...";
+        }
+        int end = function.length();
+        int brace = function.indexOf('{');
+        if (brace >= 0) {
+            end = brace;
+        }
+        int arrow = function.indexOf("=>");
+        if (arrow >= 0 && arrow < end) {
+            end = arrow;
+        }
+        String declaration = function.substring(0, end).stripTrailing();
+        return declaration.endsWith(";") ? declaration : declaration + ";";
+    }
+
+    private static void trimTrailing(StringBuilder out) {
+        int end = out.length();
+        while (end > 0 && (out.charAt(end - 1) == ' ' || out.charAt(end - 1) == '\t' || out.charAt(end - 1) == '\f')) {
+            end--;
+        }
+        out.setLength(end);
+    }
+}
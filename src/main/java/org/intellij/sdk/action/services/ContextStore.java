@@ -0,0 +1,137 @@
+package org.intellij.sdk.action.services;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class contexts uploaded to the backend once and then referenced by hash, see {@link ApiConfig.SHARED_CONTEXT}.
+ * <p>
+ * A class merged with its base classes goes along with every function of the class that uses inherited members,
+ * often dozens of times the same large text. With a shared context, the first request that needs it uploads it, the
+ * others running at the same time wait for that upload, and all of them send only its SHA-256. The backend may
+ * forget a context: it then answers a reference with 409, and the context is uploaded again.
+ * <p>
+ * A backend without the context endpoint answers the upload with 404, and contexts are sent inline for the rest of
+ * the session.
+ */
+public final class ContextStore {
+    private static final Logger LOG = Logger.getInstance(ContextStore.class);
+
+    /**
+     * Sends a context to the backend.
+     */
+    @FunctionalInterface
+    interface Uploader {
+        /**
+         * @return the hash the backend computed for {@code content}
+         */
+        String upload(String hash, String content) throws IOException;
+    }
+
+    // hash -> its upload, done or in flight
+    private final Map<String, CompletableFuture<Void>> uploads = new ConcurrentHashMap<>();
+    private volatile boolean available = true;
+    private final AtomicLong uploaded = new AtomicLong();
+    private final AtomicLong uploadedBytes = new AtomicLong();
+    private final AtomicLong references = new AtomicLong();
+
+    /**
+     * Whether {@code context} is sent by reference rather than inline.
+     */
+    public boolean shares(@Nullable String context) {
+        return ApiConfig.SHARED_CONTEXT.ENABLED && available && context != null && context.length() >= ApiConfig.SHARED_CONTEXT.MIN_BYTES;
+    }
+
+    /**
+     * The hash to send instead of {@code context}, uploading it first unless that is already done or under way;
+     * null if it goes inline.
+     */
+    @Nullable String reference(String context, Uploader uploader) throws IOException {
+        if (!shares(context)) {
+            return null;
+        }
+        String hash = hash(context);
+        CompletableFuture<Void> upload = new CompletableFuture<>();
+        CompletableFuture<Void> existing = uploads.putIfAbsent(hash, upload);
+        if (existing == null) {
+            try {
+                String serverHash = uploader.upload(hash, context);
+                if (!hash.equals(serverHash)) {
+                    LOG.warn("The backend hashes contexts differently (" + serverHash + " for " + hash + "), sending them inline");
+                    available = false;
+                }
+                uploaded.incrementAndGet();
+                uploadedBytes.addAndGet(context.length());
+                upload.complete(null);
+            } catch (IOException | RuntimeException e) {
+                uploads.remove(hash, upload);
+                upload.completeExceptionally(e);
+                throw e;
+            }
+        } else {
+            await(existing);
+        }
+        if (!available) {
+            return null;
+        }
+        references.incrementAndGet();
+        return hash;
+    }
+
+    /**
+     * The backend answered a reference to {@code hash} with 409: it no longer has the context.
+     */
+    void forget(String hash) {
+        uploads.remove(hash);
+    }
+
+    /**
+     * The backend has no context endpoint.
+     */
+    void disable() {
+        if (available) {
+            LOG.info("The backend does not store contexts, sending them inline");
+        }
+        available = false;
+    }
+
+    static String hash(String content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void await(CompletableFuture<Void> upload) throws IOException {
+        try {
+            upload.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a context upload");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Context upload failed", cause);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return uploaded.get() + " contexts uploaded (" + uploadedBytes.get() / 1024 + " KB), referenced " + references.get() + " times";
+    }
+}
@@ -0,0 +1,239 @@
+package org.intellij.sdk.action.services;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content-addressed, size-bounded cache of backend responses stored under the IDE system directory.
+ * <p>
+ * Entries are gzip-compressed JSON files named after the SHA-256 of the request they answer. When the total
+ * size goes over the limit, the least recently used entries are deleted. Access order survives restarts
+ * through the file modification time, which is refreshed on every hit.
+ */
+public final class DiskCache {
+    private static final Logger LOG = Logger.getInstance(DiskCache.class);
+    private static final String ENTRY_SUFFIX = ".json.gz";
+    private static final String TEMP_SUFFIX = ".tmp";
+    // A temp file this old is left over from a write that never finished, no write takes that long
+    private static final Duration STALE_TEMP_AGE = Duration.ofMinutes(10);
+    private static final Map<String, DiskCache> instances = new ConcurrentHashMap<>();
+
+    private final Path directory;
+    private final long maxBytes;
+    // key -> compressed size, in access order (eldest first)
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public static DiskCache named(String name) {
+        return instances.computeIfAbsent(name, n -> new DiskCache(
+                Paths.get(PathManager.getSystemPath(), "sentra", n), ApiConfig.CACHE.MAX_BYTES));
+    }
+
+    public DiskCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        loadIndex();
+    }
+
+    /**
+     * Builds a cache key from the parts of a request that determine its response.
+     */
+    public static String hash(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                byte[] bytes = part == null ? new byte[0] : part.getBytes(StandardCharsets.UTF_8);
+                // Length prefix keeps ("ab", "c") and ("a", "bc") apart
+                digest.update(Integer.toString(part == null ? -1 : bytes.length).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) ':');
+                digest.update(bytes);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public <T> T get(String key, Class<T> type) {
+        synchronized (entries) {
+            if (entries.get(key) == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+
+        Path entry = entryPath(key);
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(entry))) {
+            T value = JsonCodec.reader(type).readValue(in);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.incrementAndGet();
+            return value;
+        } catch (IOException e) {
+            if (!(e instanceof NoSuchFileException)) {
+                LOG.warn("Dropping unreadable cache entry " + entry, e);
+            }
+            remove(key);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void put(String key, Object value) {
+        Path entry = entryPath(key);
+        try {
+            Files.createDirectories(directory);
+            Path tmp = Files.createTempFile(directory, key, TEMP_SUFFIX);
+            try {
+                try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp))) {
+                    JsonCodec.writer().writeValue(out, value);
+                }
+                Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                // Gone after the move, left over if the write failed
+                Files.deleteIfExists(tmp);
+            }
+            long size = Files.size(entry);
+
+            synchronized (entries) {
+                Long previous = entries.put(key, size);
+                totalBytes += size - (previous != null ? previous : 0);
+            }
+            evictIfNeeded();
+        } catch (IOException e) {
+            LOG.warn("Failed to write cache entry " + entry, e);
+        }
+    }
+
+    public void remove(String key) {
+        synchronized (entries) {
+            Long size = entries.remove(key);
+            if (size != null) {
+                totalBytes -= size;
+            }
+        }
+        try {
+            Files.deleteIfExists(entryPath(key));
+        } catch (IOException e) {
+            LOG.warn("Failed to delete cache entry " + key, e);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getSizeBytes() {
+        synchronized (entries) {
+            return totalBytes;
+        }
+    }
+
+    public String getStats() {
+        int count;
+        long bytes;
+        synchronized (entries) {
+            count = entries.size();
+            bytes = totalBytes;
+        }
+        return String.format("%d hits, %d misses, %d entries, %d KB", getHits(), getMisses(), count, bytes / 1024);
+    }
+
+    public void logStats() {
+        LOG.info("Cache " + directory.getFileName() + ": " + getStats());
+    }
+
+    private void evictIfNeeded() {
+        List<String> evicted = new ArrayList<>();
+        synchronized (entries) {
+            Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+                totalBytes -= eldest.getValue();
+                evicted.add(eldest.getKey());
+                iterator.remove();
+            }
+        }
+        for (String key : evicted) {
+            try {
+                Files.deleteIfExists(entryPath(key));
+            } catch (IOException e) {
+                LOG.warn("Failed to evict cache entry " + key, e);
+            }
+        }
+    }
+
+    private void loadIndex() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        deleteStaleTempFiles();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(path -> path.getFileName().toString().endsWith(ENTRY_SUFFIX))
+                    .sorted(Comparator.comparingLong(DiskCache::lastModified))
+                    .forEach(path -> {
+                        String name = path.getFileName().toString();
+                        long size = path.toFile().length();
+                        entries.put(name.substring(0, name.length() - ENTRY_SUFFIX.length()), size);
+                        totalBytes += size;
+                    });
+        } catch (IOException e) {
+            LOG.warn("Failed to load cache index from " + directory, e);
+        }
+        evictIfNeeded();
+    }
+
+    /**
+     * Deletes the temp files of writes that were cut short, e.g. by the IDE exiting. Younger ones may belong to a
+     * write still running in another IDE instance that shares the system directory.
+     */
+    private void deleteStaleTempFiles() {
+        long staleBefore = System.currentTimeMillis() - STALE_TEMP_AGE.toMillis();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(path -> path.getFileName().toString().endsWith(TEMP_SUFFIX))
+                    .filter(path -> lastModified(path) < staleBefore)
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException e) {
+                            LOG.warn("Failed to delete stale cache temp file " + path, e);
+                        }
+                    });
+        } catch (IOException e) {
+            LOG.warn("Failed to list cache temp files in " + directory, e);
+        }
+    }
+
+    private static long lastModified(Path path) {
+        return path.toFile().lastModified();
+    }
+
+    private Path entryPath(String key) {
+        return directory.resolve(key + ENTRY_SUFFIX);
+    }
+}
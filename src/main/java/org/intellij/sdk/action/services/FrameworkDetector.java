@@ -0,0 +1,204 @@
+package org.intellij.sdk.action.services;
+
+import org.intellij.sdk.action.services.CodeAnalyzerService.Framework;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Finds the front-end framework of a source file in one pass, matching all framework markers at once with an
+ * Aho-Corasick automaton.
+ * <p>
+ * Runs of whitespace in the source are read as a single space, so {@code "import  React"} matches the
+ * {@code "import React"} marker. When markers of several frameworks occur, the framework listed first in
+ * {@link #RULES} wins, as a file importing both {@code @angular/} and a {@code useState} helper is still an Angular file.
+ */
+public final class FrameworkDetector {
+
+    /**
+     * A marker that identifies {@code framework}. Whole-word markers must not be preceded or followed by an
+     * identifier character.
+     */
+    public record Rule(Framework framework, String marker, boolean wholeWord) {
+        static Rule substring(Framework framework, String marker) {
+            return new Rule(framework, marker, false);
+        }
+
+        static Rule word(Framework framework, String marker) {
+            return new Rule(framework, marker, true);
+        }
+    }
+
+    /**
+     * Frameworks in order of precedence, add new frameworks and markers here.
+     */
+    public static final List<Rule> RULES = List.of(
+            Rule.substring(Framework.Angular, "@angular/"),
+            Rule.substring(Framework.Angular, "@Component("),
+            Rule.substring(Framework.Angular, "@NgModule("),
+            Rule.substring(Framework.Angular, "@Injectable("),
+            Rule.substring(Framework.Angular, "@Directive("),
+            Rule.substring(Framework.Angular, "@Pipe("),
+            Rule.word(Framework.Angular, "ngModel"),
+            Rule.word(Framework.Angular, "ngIf"),
+            Rule.word(Framework.Angular, "ngFor"),
+
+            Rule.substring(Framework.React, "import React"),
+            Rule.substring(Framework.React, "from \"react\""),
+            Rule.substring(Framework.React, "from 'react'"),
+            Rule.substring(Framework.React, "useState"),
+            Rule.substring(Framework.React, "useEffect"),
+            Rule.substring(Framework.React, "useContext"),
+            Rule.substring(Framework.React, "useReducer"),
+            Rule.substring(Framework.React, "useMemo"),
+
+            Rule.substring(Framework.Vue, "from \"vue\""),
+            Rule.substring(Framework.Vue, "from 'vue'"),
+            Rule.word(Framework.Vue, "defineComponent"),
+
+            Rule.substring(Framework.Svelte, "from \"svelte\""),
+            Rule.substring(Framework.Svelte, "from 'svelte'"),
+            Rule.substring(Framework.Svelte, "from \"svelte/"),
+            Rule.substring(Framework.Svelte, "from 'svelte/")
+    );
+
+    private static final FrameworkDetector DEFAULT = new FrameworkDetector(RULES);
+
+    // Markers are ASCII, any other character sends the automaton back to the root
+    private static final int ALPHABET = 128;
+
+    private final List<Rule> rules;
+    private final List<Framework> precedence;
+    private final int[] ruleRanks;
+    // Complete transition table, goto and failure links folded together
+    private final int[][] transitions;
+    // Rules ending in each state, including those reached through failure links
+    private final int[][] outputs;
+
+    public FrameworkDetector(List<Rule> rules) {
+        this.rules = List.copyOf(rules);
+        this.precedence = new ArrayList<>();
+        for (Rule rule : rules) {
+            if (!precedence.contains(rule.framework())) {
+                precedence.add(rule.framework());
+            }
+        }
+        this.ruleRanks = new int[rules.size()];
+        for (int r = 0; r < rules.size(); r++) {
+            ruleRanks[r] = precedence.indexOf(rules.get(r).framework());
+        }
+
+        List<int[]> trie = new ArrayList<>();
+        List<int[]> ruleOutputs = new ArrayList<>();
+        trie.add(newState());
+        ruleOutputs.add(new int[0]);
+        for (int r = 0; r < rules.size(); r++) {
+            int state = 0;
+            for (char c : rules.get(r).marker().toCharArray()) {
+                if (c >= ALPHABET) {
+                    throw new IllegalArgumentException("Markers must be ASCII: " + rules.get(r).marker());
+                }
+                if (trie.get(state)[c] < 0) {
+                    trie.get(state)[c] = trie.size();
+                    trie.add(newState());
+                    ruleOutputs.add(new int[0]);
+                }
+                state = trie.get(state)[c];
+            }
+            ruleOutputs.set(state, append(ruleOutputs.get(state), r));
+        }
+
+        // Breadth-first: fill missing transitions from the failure state and inherit its outputs
+        int[] failure = new int[trie.size()];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < ALPHABET; c++) {
+            int next = trie.get(0)[c];
+            if (next < 0) {
+                trie.get(0)[c] = 0;
+            } else {
+                failure[next] = 0;
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (int c = 0; c < ALPHABET; c++) {
+                int next = trie.get(state)[c];
+                if (next < 0) {
+                    trie.get(state)[c] = trie.get(failure[state])[c];
+                } else {
+                    failure[next] = trie.get(failure[state])[c];
+                    for (int r : ruleOutputs.get(failure[next])) {
+                        ruleOutputs.set(next, append(ruleOutputs.get(next), r));
+                    }
+                    queue.add(next);
+                }
+            }
+        }
+
+        this.transitions = trie.toArray(new int[0][]);
+        this.outputs = ruleOutputs.toArray(new int[0][]);
+    }
+
+    public static Framework detect(CharSequence code) {
+        return DEFAULT.scan(code);
+    }
+
+    public Framework scan(CharSequence code) {
+        int best = precedence.size();
+        int state = 0;
+        boolean previousWasSpace = false;
+        int length = code.length();
+
+        for (int i = 0; i < length; i++) {
+            char c = code.charAt(i);
+            if (Character.isWhitespace(c)) {
+                if (previousWasSpace) {
+                    continue;
+                }
+                previousWasSpace = true;
+                c = ' ';
+            } else {
+                previousWasSpace = false;
+            }
+
+            state = c < ALPHABET ? transitions[state][c] : 0;
+            for (int r : outputs[state]) {
+                Rule rule = rules.get(r);
+                int rank = ruleRanks[r];
+                if (rank < best && (!rule.wholeWord() || isWholeWord(code, i, rule.marker().length()))) {
+                    best = rank;
+                    if (best == 0) {
+                        return precedence.get(0);
+                    }
+                }
+            }
+        }
+        return best < precedence.size() ? precedence.get(best) : Framework.Unknown;
+    }
+
+    /**
+     * Whole-word markers contain no whitespace, so they occupy exactly {@code length} characters of the original text.
+     */
+    private static boolean isWholeWord(CharSequence code, int end, int length) {
+        int start = end - length + 1;
+        boolean boundaryBefore = start == 0 || !Character.isJavaIdentifierPart(code.charAt(start - 1));
+        boolean boundaryAfter = end + 1 >= code.length() || !Character.isJavaIdentifierPart(code.charAt(end + 1));
+        return boundaryBefore && boundaryAfter;
+    }
+
+    private static int[] newState() {
+        int[] state = new int[ALPHABET];
+        Arrays.fill(state, -1);
+        return state;
+    }
+
+    private static int[] append(int[] values, int value) {
+        int[] result = Arrays.copyOf(values, values.length + 1);
+        result[values.length] = value;
+        return result;
+    }
+}
@@ -0,0 +1,784 @@
+package org.intellij.sdk.action.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Single-pass function extractor used by {@link CodeAnalyzerService#extractCodeFunctions}.
+ * <p>
+ * Java, C# and TypeScript are scanned with a small lexer that skips comments, strings, char literals, text blocks,
+ * template and interpolated strings and regex literals, and matches braces at any nesting depth. Python is scanned
+ * line by line, following indentation, brackets and triple-quoted strings. Every character is visited a constant
+ * number of times, so extraction is linear in the size of the file.
+ * <p>
+ * Only top-level functions are reported: methods of (nested) types and module-level functions, but not local
+ * functions or lambdas inside them. Constructors ({@code className}, {@code constructor}, {@code __init__}) are
+ * skipped.
+ */
+public final class FunctionExtractor {
+    private static final Set<String> TYPE_KEYWORDS = Set.of(
+            "class", "interface", "enum", "record", "struct", "namespace", "module");
+    static final Set<String> NON_FUNCTION_NAMES = Set.of(
+            "if", "for", "foreach", "while", "switch", "catch", "synchronized", "using", "lock", "fixed",
+            "do", "try", "else", "finally", "return", "when", "with", "checked", "unchecked", "unsafe",
+            "function", "super", "this", "new", "typeof", "sizeof", "nameof", "default");
+    static final Set<String> REGEX_PRECEDING_KEYWORDS = Set.of(
+            "return", "typeof", "case", "do", "else", "in", "of", "delete", "void", "throw", "yield", "await");
+
+    private FunctionExtractor() {
+    }
+
+    public static List<FunctionSpan> extract(String fileType, String className, CharSequence content) {
+        switch (fileType) {
+            case "java":
+            case "cs":
+            case "ts":
+            case "tsx":
+                return new BraceScanner(fileType, className, content).scan();
+            case "py":
+                return new IndentScanner(content).scan();
+            default:
+                return List.of();
+        }
+    }
+
+    /**
+     * Lexer shared by the brace languages and {@link LocalClassMerger}: knows how to step over everything that is not code.
+     */
+    static class Lexer {
+        final CharSequence s;
+        final int n;
+        final boolean java;
+        final boolean cs;
+        final boolean ts;
+
+        Lexer(String fileType, CharSequence s) {
+            this.s = s;
+            this.n = s.length();
+            this.java = "java".equals(fileType);
+            this.cs = "cs".equals(fileType);
+            this.ts = "ts".equals(fileType) || "tsx".equals(fileType);
+        }
+
+        /**
+         * Returns the offset after the comment, string, char or regex literal starting at {@code pos},
+         * or -1 if {@code pos} starts code.
+         *
+         * @param previous last significant code character before {@code pos}, used to tell regex literals from division
+         */
+        int skipNonCode(int pos, char previous, boolean previousIsKeyword) {
+            char c = s.charAt(pos);
+            char next = pos + 1 < n ? s.charAt(pos + 1) : 0;
+            if (c == '/' && next == '/') {
+                return endOfLine(pos);
+            }
+            if (c == '/' && next == '*') {
+                int end = indexOf("*/", pos + 2);
+                return end < 0 ? n : end + 2;
+            }
+            if (c == '"') {
+                return skipDoubleQuoted(pos, false, false);
+            }
+            if (c == '\'') {
+                return skipQuoted(pos, '\'');
+            }
+            if (cs && (c == '@' || c == '$')) {
+                // Verbatim @"..", interpolated $"..", and both combined
+                int p = pos;
+                boolean verbatim = false;
+                boolean interpolated = false;
+                while (p < n && (s.charAt(p) == '@' || s.charAt(p) == '$') && p - pos < 2) {
+                    verbatim |= s.charAt(p) == '@';
+                    interpolated |= s.charAt(p) == '$';
+                    p++;
+                }
+                if (p < n && s.charAt(p) == '"') {
+                    return skipDoubleQuoted(p, verbatim, interpolated);
+                }
+                return -1;
+            }
+            if (cs && c == '#' && isLineStart(pos)) {
+                // Preprocessor directive
+                return endOfLine(pos);
+            }
+            if (ts && c == '`') {
+                return skipTemplate(pos);
+            }
+            if (ts && c == '/' && regexAllowedAfter(previous, previousIsKeyword)) {
+                return skipRegex(pos);
+            }
+            return -1;
+        }
+
+        int skipDoubleQuoted(int pos, boolean verbatim, boolean interpolated) {
+            // Text blocks and raw string literals: """ ... """
+            int quotes = 0;
+            while (pos + quotes < n && s.charAt(pos + quotes) == '"') {
+                quotes++;
+            }
+            if (quotes >= 3 && (java || cs)) {
+                String fence = "\"".repeat(quotes);
+                int p = pos + quotes;
+                while (p < n) {
+                    char c = s.charAt(p);
+                    if (c == '\\' && java) {
+                        p += 2;
+                    } else if (c == '"' && startsWith(fence, p)) {
+                        return p + quotes;
+                    } else {
+                        p++;
+                    }
+                }
+                return n;
+            }
+
+            int p = pos + 1;
+            while (p < n) {
+                char c = s.charAt(p);
+                if (c == '"') {
+                    if (verbatim && p + 1 < n && s.charAt(p + 1) == '"') {
+                        p += 2;
+                        continue;
+                    }
+                    return p + 1;
+                }
+                if (c == '\\' && !verbatim) {
+                    p += 2;
+                } else if (interpolated && c == '{') {
+                    if (p + 1 < n && s.charAt(p + 1) == '{') {
+                        p += 2;
+                    } else {
+                        p = skipBlock(p);
+                    }
+                } else if ((c == '\n' || c == '\r') && !verbatim) {
+                    // Unterminated literal, do not run into the rest of the file
+                    return p;
+                } else {
+                    p++;
+                }
+            }
+            return n;
+        }
+
+        int skipQuoted(int pos, char quote) {
+            int p = pos + 1;
+            while (p < n) {
+                char c = s.charAt(p);
+                if (c == quote) {
+                    return p + 1;
+                }
+                if (c == '\\') {
+                    p += 2;
+                } else if (c == '\n' || c == '\r') {
+                    return p;
+                } else {
+                    p++;
+                }
+            }
+            return n;
+        }
+
+        int skipTemplate(int pos) {
+            int p = pos + 1;
+            while (p < n) {
+                char c = s.charAt(p);
+                if (c == '`') {
+                    return p + 1;
+                }
+                if (c == '\\') {
+                    p += 2;
+                } else if (c == '$' && p + 1 < n && s.charAt(p + 1) == '{') {
+                    p = skipBlock(p + 1);
+                } else {
+                    p++;
+                }
+            }
+            return n;
+        }
+
+        int skipRegex(int pos) {
+            int p = pos + 1;
+            boolean inClass = false;
+            while (p < n) {
+                char c = s.charAt(p);
+                if (c == '\\') {
+                    p += 2;
+                    continue;
+                }
+                if (c == '\n' || c == '\r') {
+                    return p;
+                }
+                if (c == '[') {
+                    inClass = true;
+                } else if (c == ']') {
+                    inClass = false;
+                } else if (c == '/' && !inClass) {
+                    p++;
+                    while (p < n && Character.isLetter(s.charAt(p))) {
+                        p++;
+                    }
+                    return p;
+                }
+                p++;
+            }
+            return n;
+        }
+
+        /**
+         * Returns the offset after the brace that closes the one at {@code open}.
+         */
+        int skipBlock(int open) {
+            int depth = 0;
+            int p = open;
+            char previous = '{';
+            boolean previousIsKeyword = false;
+            while (p < n) {
+                char c = s.charAt(p);
+                if (Character.isWhitespace(c)) {
+                    p++;
+                    continue;
+                }
+                int skipped = skipNonCode(p, previous, previousIsKeyword);
+                if (skipped >= 0) {
+                    p = Math.max(skipped, p + 1);
+                    previous = '"';
+                    previousIsKeyword = false;
+                    continue;
+                }
+                if (isIdentifierStart(c)) {
+                    int end = identifierEnd(p);
+                    previousIsKeyword = ts && REGEX_PRECEDING_KEYWORDS.contains(s.subSequence(p, end).toString());
+                    previous = 'a';
+                    p = end;
+                    continue;
+                }
+                if (c == '{') {
+                    depth++;
+                } else if (c == '}') {
+                    depth--;
+                    if (depth == 0) {
+                        return p + 1;
+                    }
+                }
+                previous = c;
+                previousIsKeyword = false;
+                p++;
+            }
+            return n;
+        }
+
+        boolean isCommentStart(int pos) {
+            char c = s.charAt(pos);
+            char next = pos + 1 < n ? s.charAt(pos + 1) : 0;
+            return (c == '/' && (next == '/' || next == '*')) || (cs && c == '#');
+        }
+
+        boolean isIdentifierStart(char c) {
+            return Character.isJavaIdentifierStart(c) || (ts && c == '#');
+        }
+
+        int identifierEnd(int pos) {
+            int p = pos + 1;
+            while (p < n && Character.isJavaIdentifierPart(s.charAt(p))) {
+                p++;
+            }
+            return p;
+        }
+
+        char nextSignificant(int pos) {
+            int p = pos;
+            while (p < n && Character.isWhitespace(s.charAt(p))) {
+                p++;
+            }
+            return p < n ? s.charAt(p) : 0;
+        }
+
+        boolean regionIs(int start, int end, String word) {
+            return end - start == word.length() && startsWith(word, start);
+        }
+
+        boolean startsWith(String text, int pos) {
+            if (pos + text.length() > n) {
+                return false;
+            }
+            for (int i = 0; i < text.length(); i++) {
+                if (s.charAt(pos + i) != text.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        int indexOf(String text, int from) {
+            for (int p = from; p + text.length() <= n; p++) {
+                if (s.charAt(p) == text.charAt(0) && startsWith(text, p)) {
+                    return p;
+                }
+            }
+            return -1;
+        }
+
+        int endOfLine(int pos) {
+            int p = pos;
+            while (p < n && s.charAt(p) != '\n' && s.charAt(p) != '\r') {
+                p++;
+            }
+            return p;
+        }
+
+        boolean isLineStart(int pos) {
+            int p = pos - 1;
+            while (p >= 0 && (s.charAt(p) == ' ' || s.charAt(p) == '\t')) {
+                p--;
+            }
+            return p < 0 || s.charAt(p) == '\n' || s.charAt(p) == '\r';
+        }
+
+        private static boolean regexAllowedAfter(char previous, boolean previousIsKeyword) {
+            // Braces and angle brackets are left out on purpose: after them a slash is far more likely to close a JSX tag
+            return previousIsKeyword || previous == 0 || "(,=:[!&|?;+-*%~^".indexOf(previous) >= 0;
+        }
+    }
+
+    /**
+     * Walks declarations at type/module level. Each declaration "header" runs from its first token to the
+     * brace, semicolon or comma that ends it; the header decides whether the following block is a function
+     * body (reported), a type body (descended into) or anything else (skipped).
+     */
+    private static final class BraceScanner extends Lexer {
+        private final String className;
+        private final List<FunctionSpan> spans = new ArrayList<>();
+
+        private int headerStart;
+        private int parenDepth;
+        private int bracketDepth;
+        private int angleDepth;
+        private boolean sawTypeKeyword;
+        private boolean sawNew;
+        private boolean sawAssign;
+        private boolean sawArrow;
+        private boolean paramsOpen;
+        private boolean paramsClosed;
+        private int nameStart;
+        private int nameEnd;
+        private int lastIdentStart;
+        private int lastIdentEnd;
+        private boolean lastTokenIdentifier;
+        private boolean lastTokenAnnotation;
+        private int identBeforeAngleStart;
+        private int identBeforeAngleEnd;
+        private char previous;
+        private boolean previousIsKeyword;
+
+        BraceScanner(String fileType, String className, CharSequence content) {
+            super(fileType, content);
+            this.className = className == null ? "" : className;
+            resetHeader();
+        }
+
+        List<FunctionSpan> scan() {
+            int pos = 0;
+            while (pos < n) {
+                char c = s.charAt(pos);
+                if (Character.isWhitespace(c)) {
+                    pos++;
+                    continue;
+                }
+
+                int skipped = skipNonCode(pos, previous, previousIsKeyword);
+                if (skipped >= 0) {
+                    if (!isCommentStart(pos)) {
+                        // A literal, not a comment: part of the header
+                        markHeader(pos);
+                        previous = '"';
+                        lastTokenIdentifier = false;
+                        lastTokenAnnotation = false;
+                    }
+                    previousIsKeyword = false;
+                    pos = Math.max(skipped, pos + 1);
+                    continue;
+                }
+
+                if (isIdentifierStart(c)) {
+                    pos = identifier(pos);
+                    continue;
+                }
+
+                pos = punctuation(pos, c);
+            }
+            return spans;
+        }
+
+        private int identifier(int pos) {
+            int end = identifierEnd(pos);
+            boolean annotation = pos > 0 && s.charAt(pos - 1) == '@';
+            markHeader(annotation ? pos - 1 : pos);
+
+            if (parenDepth == 0 && bracketDepth == 0 && previous != '.') {
+                String word = end - pos <= 9 ? s.subSequence(pos, end).toString() : "";
+                if (!paramsOpen && TYPE_KEYWORDS.contains(word) && isIdentifierStart(nextSignificant(end))) {
+                    sawTypeKeyword = true;
+                } else if (!paramsOpen && word.equals("new")) {
+                    sawNew = true;
+                }
+                previousIsKeyword = ts && REGEX_PRECEDING_KEYWORDS.contains(word);
+            } else {
+                previousIsKeyword = false;
+            }
+
+            lastIdentStart = pos;
+            lastIdentEnd = end;
+            lastTokenIdentifier = true;
+            lastTokenAnnotation = annotation || (lastTokenAnnotation && previous == '.');
+            previous = 'a';
+            return end;
+        }
+
+        private int punctuation(int pos, char c) {
+            char next = pos + 1 < n ? s.charAt(pos + 1) : 0;
+            boolean wasIdentifier = lastTokenIdentifier;
+            boolean wasAnnotation = lastTokenAnnotation;
+            lastTokenIdentifier = false;
+            lastTokenAnnotation = false;
+            previousIsKeyword = false;
+
+            switch (c) {
+                case '@':
+                    markHeader(pos);
+                    // Keep the annotation flag for the identifier that follows
+                    return pos + 1;
+                case '(':
+                    markHeader(pos);
+                    if (parenDepth == 0 && bracketDepth == 0 && !paramsOpen && !wasAnnotation) {
+                        paramsOpen = true;
+                        if (previous == '>' && identBeforeAngleStart >= 0) {
+                            nameStart = identBeforeAngleStart;
+                            nameEnd = identBeforeAngleEnd;
+                        } else if (wasIdentifier) {
+                            nameStart = lastIdentStart;
+                            nameEnd = lastIdentEnd;
+                        }
+                    }
+                    parenDepth++;
+                    break;
+                case ')':
+                    if (parenDepth > 0) {
+                        parenDepth--;
+                        if (parenDepth == 0 && paramsOpen) {
+                            paramsClosed = true;
+                        }
+                    }
+                    break;
+                case '[':
+                    markHeader(pos);
+                    bracketDepth++;
+                    break;
+                case ']':
+                    if (bracketDepth > 0) {
+                        bracketDepth--;
+                    }
+                    break;
+                case '<':
+                    if (parenDepth == 0 && wasIdentifier && !paramsOpen) {
+                        if (angleDepth == 0) {
+                            identBeforeAngleStart = lastIdentStart;
+                            identBeforeAngleEnd = lastIdentEnd;
+                        }
+                        angleDepth++;
+                    }
+                    break;
+                case '>':
+                    if (previous == '=' || previous == '-') {
+                        // => and -> arrows
+                        if (parenDepth == 0 && bracketDepth == 0) {
+                            sawArrow = true;
+                        }
+                    } else if (angleDepth > 0) {
+                        angleDepth--;
+                    }
+                    break;
+                case '=':
+                    if (next != '>' && next != '=' && "=!<>+-*/%&|^?".indexOf(previous) < 0
+                            && parenDepth == 0 && bracketDepth == 0) {
+                        sawAssign = true;
+                    }
+                    break;
+                case ',':
+                    if (parenDepth == 0 && bracketDepth == 0 && angleDepth == 0 && !paramsOpen) {
+                        // Enum constants, object literal members, multiple declarators
+                        previous = c;
+                        resetHeader();
+                        previous = ',';
+                        return pos + 1;
+                    }
+                    break;
+                case ';':
+                    if (parenDepth == 0 && bracketDepth == 0) {
+                        if (cs && paramsClosed && sawArrow && !sawAssign && isFunctionName()) {
+                            // Expression-bodied member: int Foo() => _foo;
+                            spans.add(new FunctionSpan(headerStart, pos + 1));
+                        }
+                        resetHeader();
+                        previous = ';';
+                        return pos + 1;
+                    }
+                    break;
+                case '{':
+                    return openBrace(pos);
+                case '}':
+                    resetHeader();
+                    previous = '}';
+                    return pos + 1;
+                default:
+                    markHeader(pos);
+            }
+            previous = c;
+            return pos + 1;
+        }
+
+        private int openBrace(int pos) {
+            if (parenDepth > 0 || bracketDepth > 0) {
+                // Lambda body or initializer inside an argument list: part of the header expression
+                previous = '}';
+                return skipBlock(pos);
+            }
+            if (ts && paramsClosed && previous == ':') {
+                // Object type literal used as a return type annotation
+                previous = '}';
+                return skipBlock(pos);
+            }
+
+            int start = headerStart >= 0 ? headerStart : pos;
+            if (sawTypeKeyword && !sawAssign && !sawNew) {
+                // Type body: descend and keep looking for members
+                resetHeader();
+                previous = '{';
+                return pos + 1;
+            }
+
+            int end = skipBlock(pos);
+            if (ts && sawArrow && previous == '>') {
+                // const handler = (event) => { ... }
+                spans.add(new FunctionSpan(start, end));
+            } else if (paramsClosed && !sawNew && !sawAssign && isFunctionName()) {
+                if (!isConstructorName()) {
+                    spans.add(new FunctionSpan(start, end));
+                }
+            } else if (ts && headerStart < 0 || ts && !paramsOpen && !sawAssign && !sawNew) {
+                // Module-level or object literal block (e.g. export default { ... }): members may be functions
+                resetHeader();
+                previous = '{';
+                return pos + 1;
+            }
+            resetHeader();
+            previous = '}';
+            return end;
+        }
+
+        private boolean isFunctionName() {
+            if (nameStart < 0) {
+                return false;
+            }
+            String name = s.subSequence(nameStart, nameEnd).toString();
+            return !NON_FUNCTION_NAMES.contains(name);
+        }
+
+        private boolean isConstructorName() {
+            return regionIs(nameStart, nameEnd, className) || (ts && regionIs(nameStart, nameEnd, "constructor"));
+        }
+
+        private void markHeader(int pos) {
+            if (headerStart < 0) {
+                headerStart = pos;
+            }
+        }
+
+        private void resetHeader() {
+            headerStart = -1;
+            parenDepth = 0;
+            bracketDepth = 0;
+            angleDepth = 0;
+            sawTypeKeyword = false;
+            sawNew = false;
+            sawAssign = false;
+            sawArrow = false;
+            paramsOpen = false;
+            paramsClosed = false;
+            nameStart = -1;
+            nameEnd = -1;
+            identBeforeAngleStart = -1;
+            identBeforeAngleEnd = -1;
+            lastTokenIdentifier = false;
+            lastTokenAnnotation = false;
+        }
+    }
+
+    /**
+     * Python: a function runs from its {@code def} line to the last code line indented deeper than it.
+     * Logical lines are followed through open brackets, backslash continuations and triple-quoted strings.
+     */
+    private static final class IndentScanner {
+        private final CharSequence s;
+        private final int n;
+        private final List<FunctionSpan> spans = new ArrayList<>();
+
+        IndentScanner(CharSequence s) {
+            this.s = s;
+            this.n = s.length();
+        }
+
+        List<FunctionSpan> scan() {
+            int pos = 0;
+            int captureStart = -1;
+            int captureIndent = -1;
+            int captureEnd = -1;
+
+            while (pos < n) {
+                int indent = 0;
+                int p = pos;
+                while (p < n && (s.charAt(p) == ' ' || s.charAt(p) == '\t' || s.charAt(p) == '\f')) {
+                    indent = s.charAt(p) == '\t' ? (indent / 8 + 1) * 8 : indent + 1;
+                    p++;
+                }
+                if (p >= n) {
+                    break;
+                }
+                char c = s.charAt(p);
+                if (c == '\n' || c == '\r' || c == '#') {
+                    // Blank and comment-only lines never end a function
+                    pos = nextLine(p);
+                    continue;
+                }
+
+                if (captureStart >= 0 && indent <= captureIndent) {
+                    spans.add(new FunctionSpan(captureStart, captureEnd));
+                    captureStart = -1;
+                }
+                if (captureStart < 0 && isFunctionDef(p)) {
+                    captureStart = p;
+                    captureIndent = indent;
+                }
+
+                int[] line = scanLogicalLine(p);
+                if (captureStart >= 0) {
+                    captureEnd = line[1];
+                }
+                pos = line[0];
+            }
+            if (captureStart >= 0) {
+                spans.add(new FunctionSpan(captureStart, captureEnd));
+            }
+            return spans;
+        }
+
+        private boolean isFunctionDef(int p) {
+            int q = p;
+            if (isWord(q, "async")) {
+                q += 5;
+                while (q < n && (s.charAt(q) == ' ' || s.charAt(q) == '\t')) {
+                    q++;
+                }
+            }
+            if (!isWord(q, "def")) {
+                return false;
+            }
+            q += 3;
+            while (q < n && (s.charAt(q) == ' ' || s.charAt(q) == '\t')) {
+                q++;
+            }
+            return !isWord(q, "__init__");
+        }
+
+        private boolean isWord(int p, String word) {
+            int end = p + word.length();
+            if (end > n) {
+                return false;
+            }
+            for (int i = 0; i < word.length(); i++) {
+                if (s.charAt(p + i) != word.charAt(i)) {
+                    return false;
+                }
+            }
+            return end == n || !Character.isJavaIdentifierPart(s.charAt(end));
+        }
+
+        /**
+         * @return {offset of the next logical line, end offset of the last code character of this one}
+         */
+        private int[] scanLogicalLine(int p) {
+            int depth = 0;
+            int lastCode = p;
+            while (p < n) {
+                char c = s.charAt(p);
+                if (c == '#') {
+                    while (p < n && s.charAt(p) != '\n' && s.charAt(p) != '\r') {
+                        p++;
+                    }
+                    continue;
+                }
+                if (c == '\'' || c == '"') {
+                    p = skipString(p);
+                    lastCode = p;
+                    continue;
+                }
+                if (c == '\\' && p + 1 < n && (s.charAt(p + 1) == '\n' || s.charAt(p + 1) == '\r')) {
+                    // Explicit line continuation
+                    p = nextLine(p + 1);
+                    continue;
+                }
+                if (c == '\n' || c == '\r') {
+                    if (depth == 0) {
+                        return new int[]{nextLine(p), lastCode};
+                    }
+                    p++;
+                    continue;
+                }
+                if (c == '(' || c == '[' || c == '{') {
+                    depth++;
+                } else if ((c == ')' || c == ']' || c == '}') && depth > 0) {
+                    depth--;
+                }
+                if (!Character.isWhitespace(c)) {
+                    lastCode = p + 1;
+                }
+                p++;
+            }
+            return new int[]{n, lastCode};
+        }
+
+        private int skipString(int p) {
+            char quote = s.charAt(p);
+            boolean triple = p + 2 < n && s.charAt(p + 1) == quote && s.charAt(p + 2) == quote;
+            int q = p + (triple ? 3 : 1);
+            while (q < n) {
+                char c = s.charAt(q);
+                if (c == '\\') {
+                    q += 2;
+                    continue;
+                }
+                if (c == quote && (!triple || (q + 2 < n && s.charAt(q + 1) == quote && s.charAt(q + 2) == quote))) {
+                    return q + (triple ? 3 : 1);
+                }
+                if (!triple && (c == '\n' || c == '\r')) {
+                    return q;
+                }
+                q++;
+            }
+            return n;
+        }
+
+        private int nextLine(int p) {
+            while (p < n && s.charAt(p) != '\n' && s.charAt(p) != '\r') {
+                p++;
+            }
+            if (p < n && s.charAt(p) == '\r') {
+                p++;
+            }
+            if (p < n && s.charAt(p) == '\n') {
+                p++;
+            }
+            return p;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package org.intellij.sdk.action.services;
+
+/**
+ * Offsets of one extracted function in the analysed text, {@code start} inclusive and {@code end} exclusive.
+ */
+public record FunctionSpan(int start, int end) {
+
+    public CharSequence text(CharSequence content) {
+        return content.subSequence(start, end);
+    }
+
+    public int length() {
+        return end - start;
+    }
+}
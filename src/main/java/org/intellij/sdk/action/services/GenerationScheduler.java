@@ -0,0 +1,285 @@
+package org.intellij.sdk.action.services;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the server work of every generation run in the IDE under one limit of
+ * {@link ApiConfig.GENERATION#MAX_IN_FLIGHT} tasks, each task being one API call.
+ * <p>
+ * A run is a {@link Job}, whose {@link Job#executor()} queues tasks here instead of running them. Free slots go to
+ * the highest {@link Priority} with queued work, so a selected function generated while all functions of a file are
+ * being processed waits for one slot rather than for the whole file. Within a priority the open projects take turns,
+ * and no job has more than its own concurrency in flight.
+ * <p>
+ * Running tasks are never interrupted. Tasks of a cancelled job go ahead of all queued work, as they only check the
+ * job's cancel flag and return, but still take a slot each.
+ */
+@Service(Service.Level.APP)
+public final class GenerationScheduler implements Disposable {
+    private static final Logger LOG = Logger.getInstance(GenerationScheduler.class);
+    // Lane of the jobs without a project
+    private static final Object NO_PROJECT = new Object();
+
+    public enum Priority {
+        // Selected function: someone is waiting for it
+        INTERACTIVE,
+        // All functions of a file
+        BULK
+    }
+
+    private final int maxInFlight;
+    private final Executor executor;
+    // Per priority, the projects with queued tasks in the order they take turns
+    private final Map<Priority, ArrayDeque<Lane>> lanes = new EnumMap<>(Priority.class);
+    // Tasks of cancelled jobs, whoever waits on them still needs them to complete
+    private final ArrayDeque<Task> cancelled = new ArrayDeque<>();
+    private int inFlight;
+    private boolean disposed;
+
+    public GenerationScheduler() {
+        this(ApiConfig.GENERATION.MAX_IN_FLIGHT, AppExecutorUtil.getAppExecutorService());
+    }
+
+    public GenerationScheduler(int maxInFlight, Executor executor) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.executor = executor;
+        for (Priority priority : Priority.values()) {
+            lanes.put(priority, new ArrayDeque<>());
+        }
+    }
+
+    public static GenerationScheduler getInstance() {
+        return ApplicationManager.getApplication().getService(GenerationScheduler.class);
+    }
+
+    public Job newJob(@Nullable Project project, Priority priority, String title) {
+        return new Job(project, priority, title, ApiConfig.GENERATION.CONCURRENCY);
+    }
+
+    public Job newJob(@Nullable Project project, Priority priority, String title, int maxConcurrency) {
+        return new Job(project, priority, title, maxConcurrency);
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        int queued = cancelled.size();
+        for (ArrayDeque<Lane> priorityLanes : lanes.values()) {
+            for (Lane lane : priorityLanes) {
+                queued += lane.tasks.size();
+            }
+        }
+        return queued;
+    }
+
+    private void submit(Job job, Runnable task) {
+        synchronized (this) {
+            if (job.isCancelled() || disposed) {
+                cancelled.addLast(new Task(job, task));
+            } else {
+                lane(job).tasks.addLast(new Task(job, task));
+            }
+        }
+        dispatch();
+    }
+
+    private Lane lane(Job job) {
+        Object key = job.project != null ? job.project : NO_PROJECT;
+        ArrayDeque<Lane> priorityLanes = lanes.get(job.priority);
+        for (Lane lane : priorityLanes) {
+            if (lane.key == key) {
+                return lane;
+            }
+        }
+        Lane lane = new Lane(key);
+        priorityLanes.addLast(lane);
+        return lane;
+    }
+
+    private void dispatch() {
+        List<Task> ready = new ArrayList<>();
+        synchronized (this) {
+            while (inFlight < maxInFlight) {
+                Task next = next();
+                if (next == null) {
+                    break;
+                }
+                inFlight++;
+                next.job.inFlight++;
+                ready.add(next);
+            }
+        }
+        for (Task task : ready) {
+            executor.execute(() -> run(task));
+        }
+    }
+
+    private void run(Task task) {
+        try {
+            task.runnable.run();
+        } catch (Throwable e) {
+            LOG.warn("Generation task of '" + task.job.title + "' failed", e);
+        } finally {
+            synchronized (this) {
+                inFlight--;
+                task.job.inFlight--;
+            }
+            dispatch();
+        }
+    }
+
+    /**
+     * Takes the next task: a cancelled one first, then highest priority, then the project whose turn it is, then the
+     * oldest task of a job that is below its own limit.
+     */
+    private Task next() {
+        if (!cancelled.isEmpty()) {
+            return cancelled.pollFirst();
+        }
+        for (Priority priority : Priority.values()) {
+            ArrayDeque<Lane> priorityLanes = lanes.get(priority);
+            for (int turn = priorityLanes.size(); turn > 0; turn--) {
+                Lane lane = priorityLanes.pollFirst();
+                Task task = lane.take();
+                if (!lane.tasks.isEmpty()) {
+                    priorityLanes.addLast(lane);
+                }
+                if (task != null) {
+                    return task;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void cancel(Job job) {
+        synchronized (this) {
+            for (ArrayDeque<Lane> priorityLanes : lanes.values()) {
+                for (Iterator<Lane> lanesIterator = priorityLanes.iterator(); lanesIterator.hasNext(); ) {
+                    Lane lane = lanesIterator.next();
+                    for (Iterator<Task> tasks = lane.tasks.iterator(); tasks.hasNext(); ) {
+                        Task task = tasks.next();
+                        if (task.job == job) {
+                            tasks.remove();
+                            cancelled.add(task);
+                        }
+                    }
+                    if (lane.tasks.isEmpty()) {
+                        lanesIterator.remove();
+                    }
+                }
+            }
+        }
+        dispatch();
+    }
+
+    @Override
+    public void dispose() {
+        Set<Job> jobs = new HashSet<>();
+        synchronized (this) {
+            disposed = true;
+            for (ArrayDeque<Lane> priorityLanes : lanes.values()) {
+                for (Lane lane : priorityLanes) {
+                    for (Task task : lane.tasks) {
+                        jobs.add(task.job);
+                    }
+                }
+            }
+        }
+        jobs.forEach(Job::cancel);
+    }
+
+    /**
+     * One generation run. Its cancel flag is what the run's services check between steps.
+     */
+    public final class Job {
+        @Nullable
+        private final Project project;
+        private final Priority priority;
+        private final String title;
+        private final int maxConcurrency;
+        private final AtomicBoolean cancelToken = new AtomicBoolean(false);
+        private final Executor executor = task -> submit(this, task);
+        // Guarded by the scheduler
+        private int inFlight;
+
+        private Job(@Nullable Project project, Priority priority, String title, int maxConcurrency) {
+            this.project = project;
+            this.priority = priority;
+            this.title = title;
+            this.maxConcurrency = Math.max(1, maxConcurrency);
+        }
+
+        /**
+         * Runs each task when the scheduler gives this job a slot.
+         */
+        public Executor executor() {
+            return executor;
+        }
+
+        public AtomicBoolean getCancelToken() {
+            return cancelToken;
+        }
+
+        public boolean isCancelled() {
+            return cancelToken.get();
+        }
+
+        public void cancel() {
+            cancelToken.set(true);
+            GenerationScheduler.this.cancel(this);
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        @Override
+        public String toString() {
+            return title + " (" + priority + ")";
+        }
+    }
+
+    private record Task(Job job, Runnable runnable) {
+    }
+
+    /**
+     * Queued tasks of one project at one priority.
+     */
+    private static final class Lane {
+        final Object key;
+        final ArrayDeque<Task> tasks = new ArrayDeque<>();
+
+        Lane(Object key) {
+            this.key = key;
+        }
+
+        @Nullable
+        Task take() {
+            for (Iterator<Task> iterator = tasks.iterator(); iterator.hasNext(); ) {
+                Task task = iterator.next();
+                if (task.job.inFlight < task.job.maxConcurrency) {
+                    iterator.remove();
+                    return task;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.intellij.sdk.action.services;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The rules of one {@code .gitignore} file, enough of the format for skipping directories during a scan:
+ * comments, negation, directory-only and anchored patterns, and the {@code *}, {@code ?} and {@code **} wildcards.
+ * Character classes are matched literally.
+ */
+final class GitIgnore {
+    static final GitIgnore EMPTY = new GitIgnore(null, List.of());
+
+    private final Path directory;
+    private final List<Rule> rules;
+
+    private GitIgnore(Path directory, List<Rule> rules) {
+        this.directory = directory;
+        this.rules = rules;
+    }
+
+    /**
+     * The rules of {@code directory/.gitignore}, or {@link #EMPTY} if there is none.
+     */
+    static GitIgnore load(Path directory) {
+        Path file = directory.resolve(".gitignore");
+        if (!Files.isRegularFile(file)) {
+            return EMPTY;
+        }
+        List<Rule> rules = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                Rule rule = Rule.parse(line);
+                if (rule != null) {
+                    rules.add(rule);
+                }
+            }
+        } catch (IOException e) {
+            return EMPTY;
+        }
+        return rules.isEmpty() ? EMPTY : new GitIgnore(directory, rules);
+    }
+
+    /**
+     * Whether {@code path}, somewhere below this file's directory, is ignored by the chain of {@code .gitignore}
+     * files from the root down to {@code chain}'s last element. Later rules win, as in git.
+     */
+    static boolean isIgnored(List<GitIgnore> chain, Path path, boolean isDirectory) {
+        Boolean ignored = null;
+        for (GitIgnore gitIgnore : chain) {
+            Boolean decision = gitIgnore.match(path, isDirectory);
+            if (decision != null) {
+                ignored = decision;
+            }
+        }
+        return ignored != null && ignored;
+    }
+
+    private Boolean match(Path path, boolean isDirectory) {
+        if (rules.isEmpty()) {
+            return null;
+        }
+        String relative = directory.relativize(path).toString().replace('\\', '/');
+        String name = path.getFileName().toString();
+        Boolean decision = null;
+        for (Rule rule : rules) {
+            if (rule.directoryOnly && !isDirectory) {
+                continue;
+            }
+            if (rule.pattern.matcher(rule.anchored ? relative : name).matches()) {
+                decision = !rule.negated;
+            }
+        }
+        return decision;
+    }
+
+    private static final class Rule {
+        final Pattern pattern;
+        final boolean negated;
+        final boolean directoryOnly;
+        // Patterns with a slash are relative to the .gitignore directory, others match a name at any depth
+        final boolean anchored;
+
+        private Rule(Pattern pattern, boolean negated, boolean directoryOnly, boolean anchored) {
+            this.pattern = pattern;
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+            this.anchored = anchored;
+        }
+
+        static Rule parse(String line) {
+            String text = line.strip();
+            if (text.isEmpty() || text.startsWith("#")) {
+                return null;
+            }
+            boolean negated = text.startsWith("!");
+            if (negated) {
+                text = text.substring(1);
+            }
+            boolean directoryOnly = text.endsWith("/");
+            if (directoryOnly) {
+                text = text.substring(0, text.length() - 1);
+            }
+            boolean anchored = text.contains("/");
+            if (text.startsWith("/")) {
+                text = text.substring(1);
+            }
+            if (text.isEmpty()) {
+                return null;
+            }
+            return new Rule(Pattern.compile(toRegex(text)), negated, directoryOnly, anchored);
+        }
+
+        private static String toRegex(String glob) {
+            StringBuilder regex = new StringBuilder();
+            for (int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+                if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                    // "**/" matches any number of directories, a trailing "**" everything below
+                    boolean slash = i + 2 < glob.length() && glob.charAt(i + 2) == '/';
+                    regex.append(slash ? "(?:.*/)?" : ".*");
+                    i += slash ? 2 : 1;
+                } else if (c == '*') {
+                    regex.append("[^/]*");
+                } else if (c == '?') {
+                    regex.append("[^/]");
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            return regex.toString();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.intellij.sdk.action.services;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * When to send a second copy of a slow request to one backend endpoint.
+ * <p>
+ * The response times of the endpoint's last {@link #WINDOW} successful calls are kept, and a call that has not been
+ * answered after their {@code percentile} is hedged: the same request is sent again and whichever answers first is
+ * used. Only the slowest calls are hedged that way, the ones that hold up a whole file.
+ * <p>
+ * Hedges come out of a budget, so they never add more than {@code budgetRatio} of the calls made to the endpoint,
+ * even when the endpoint as a whole gets slower and every call runs past the old percentile.
+ */
+public final class HedgingPolicy {
+    // Response times the percentile is taken from
+    private static final int WINDOW = 256;
+    // No hedging until this many response times are known
+    private static final int MIN_SAMPLES = 32;
+    // Recompute the percentile after this many new response times
+    private static final int REFRESH_EVERY = 16;
+    // Hedges that can be spent at once
+    private static final double MAX_BUDGET = 5;
+
+    private final String endpoint;
+    private final double percentile;
+    private final double budgetRatio;
+    private final Duration minDelay;
+    // Guarded by this
+    private final long[] samples = new long[WINDOW];
+    private int sampleCount;
+    private int nextSample;
+    private int sinceRefresh;
+    private long delayNanos;
+    private double budget = MAX_BUDGET;
+    private long calls;
+    private long hedges;
+
+    /**
+     * @param percentile  share of calls, between 0 and 1, that are answered before they would be hedged
+     * @param budgetRatio hedges allowed per call, over time
+     * @param minDelay    calls answered sooner are never hedged, however fast the endpoint usually is
+     */
+    public HedgingPolicy(String endpoint, double percentile, double budgetRatio, Duration minDelay) {
+        this.endpoint = endpoint;
+        this.percentile = Math.max(0.5, Math.min(0.999, percentile));
+        this.budgetRatio = budgetRatio;
+        this.minDelay = minDelay;
+    }
+
+    /**
+     * Records a call, which adds to the hedge budget.
+     */
+    public synchronized void onCall() {
+        calls++;
+        budget = Math.min(MAX_BUDGET, budget + budgetRatio);
+    }
+
+    /**
+     * Records the response time of a successful call.
+     */
+    public synchronized void record(long nanos) {
+        samples[nextSample] = nanos;
+        nextSample = (nextSample + 1) % WINDOW;
+        sampleCount = Math.min(WINDOW, sampleCount + 1);
+        if (++sinceRefresh >= REFRESH_EVERY || delayNanos == 0) {
+            sinceRefresh = 0;
+            long[] sorted = Arrays.copyOf(samples, sampleCount);
+            Arrays.sort(sorted);
+            delayNanos = Math.max(minDelay.toNanos(), sorted[(int) Math.min(sampleCount - 1, Math.floor(percentile * sampleCount))]);
+        }
+    }
+
+    /**
+     * How long to wait for an answer before hedging, or null while too few response times are known.
+     */
+    public synchronized @Nullable Duration getDelay() {
+        return sampleCount < MIN_SAMPLES ? null : Duration.ofNanos(delayNanos);
+    }
+
+    /**
+     * Whether a hedge may be sent now. Takes it out of the budget if so.
+     */
+    public synchronized boolean tryHedge() {
+        if (budget < 1) {
+            return false;
+        }
+        budget -= 1;
+        hedges++;
+        return true;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return endpoint + ": hedged " + hedges + " of " + calls + " calls after " + (sampleCount < MIN_SAMPLES ? "-" : delayNanos / 1_000_000 + " ms");
+    }
+}
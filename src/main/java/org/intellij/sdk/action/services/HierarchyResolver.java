@@ -0,0 +1,224 @@
+package org.intellij.sdk.action.services;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves the whole class hierarchy of a file and merges it into one class, for {@link BaseClassAttacher}.
+ * <p>
+ * Resolution runs in two steps. First the chain of ancestors is discovered: each file's base class comes from
+ * {@code extract_base_class} and is located in the workspace. An inheritance cycle ends the chain where it closes.
+ * Then the chain is merged from the root down, each class with the already merged result of its parent.
+ * <p>
+ * Both steps are memoized by content for the lifetime of the resolver, which is shared by every file of a run:
+ * 200 subclasses of one base discover and merge that base once. While a file's base class is being asked for, the
+ * base class named in its declaration is located and looked up too, so the levels of one chain overlap.
+ */
+public final class HierarchyResolver {
+    private static final Logger LOG = Logger.getInstance(HierarchyResolver.class);
+
+    /**
+     * Finds the source of a class in the workspace.
+     */
+    @FunctionalInterface
+    public interface Locator {
+        @Nullable
+        String locate(String workspaceRoot, String className, String fileType) throws IOException;
+    }
+
+    private enum Kind {
+        // No base class, or none that can be found in the workspace
+        NONE,
+        // The base class is declared in the same file, the server merges it on its own
+        SAME_FILE,
+        FILE
+    }
+
+    private record Parent(Kind kind, @Nullable String content) {
+        static final Parent NONE = new Parent(Kind.NONE, null);
+        static final Parent SAME_FILE = new Parent(Kind.SAME_FILE, null);
+    }
+
+    private record Level(String content, Kind kind) {
+    }
+
+    private final Locator locator;
+    private final Executor executor;
+    // hash(workspace, type, content) -> where its base class is
+    private final Map<String, CompletableFuture<Parent>> parents = new ConcurrentHashMap<>();
+    // hash(content, merged parent) -> merged class
+    private final Map<String, CompletableFuture<String>> merges = new ConcurrentHashMap<>();
+
+    public HierarchyResolver(Locator locator) {
+        this(locator, AppExecutorUtil.getAppExecutorService());
+    }
+
+    public HierarchyResolver(Locator locator, Executor executor) {
+        this.locator = locator;
+        this.executor = executor;
+    }
+
+    /**
+     * {@code fileContent} merged with all of its ancestors, or {@code fileContent} itself when it has none.
+     */
+    public CompletableFuture<String> resolve(
+            String workspaceRoot,
+            String fileType,
+            String fileContent,
+            AtomicBoolean cancelToken,
+            ProgressIndicator progressIndicator) {
+        if (cancelToken.get()) {
+            return CompletableFuture.completedFuture(fileContent);
+        }
+        progressIndicator.setText("Resolving base classes...");
+
+        return discover(workspaceRoot, fileType, fileContent, new ArrayList<>(), new HashSet<>(), cancelToken)
+                .thenCompose(chain -> {
+                    if (chain.size() > 1 || chain.get(0).kind() == Kind.SAME_FILE) {
+                        progressIndicator.setText("The current class has a base class. Processing...");
+                    }
+                    // Root first, every level merged with the merged result of the level above it
+                    Level root = chain.get(chain.size() - 1);
+                    CompletableFuture<String> merged = root.kind() == Kind.SAME_FILE
+                            ? merge(fileType, root.content(), null, cancelToken)
+                            : CompletableFuture.completedFuture(root.content());
+                    for (int i = chain.size() - 2; i >= 0; i--) {
+                        String content = chain.get(i).content();
+                        merged = merged.thenCompose(mergedParent -> merge(fileType, content, mergedParent, cancelToken));
+                    }
+                    return merged;
+                });
+    }
+
+    /**
+     * {@code content} merged with its already merged parent, or on its own when {@code mergedParent} is null.
+     * Java and C# are merged by the {@link LocalClassMerger}, other languages and text it cannot read by the server.
+     */
+    public CompletableFuture<String> merge(String fileType, String content, @Nullable String mergedParent, AtomicBoolean cancelToken) {
+        if (cancelToken.get() && !LocalClassMerger.supports(fileType)) {
+            return CompletableFuture.completedFuture(concatenate(content, mergedParent));
+        }
+        String key = mergedParent == null ? DiskCache.hash(fileType, content) : DiskCache.hash(fileType, content, mergedParent);
+        return merges.computeIfAbsent(key, k -> CompletableFuture.supplyAsync(() -> {
+            String local = LocalClassMerger.merge(fileType, content, mergedParent);
+            if (local != null) {
+                return local;
+            }
+            if (cancelToken.get()) {
+                return concatenate(content, mergedParent);
+            }
+            try {
+                return mergedParent == null
+                        ? ApiService.mergeClass(content).getMergedClass()
+                        : ApiService.mergeClass(content, mergedParent).getMergedClass();
+            } catch (IOException e) {
+                LOG.warn("Failed to merge class with its base class, using both as they are", e);
+                return concatenate(content, mergedParent);
+            }
+        }, executor));
+    }
+
+    private CompletableFuture<List<Level>> discover(
+            String workspaceRoot,
+            String fileType,
+            String content,
+            List<Level> chain,
+            Set<String> seen,
+            AtomicBoolean cancelToken) {
+        seen.add(DiskCache.hash(content));
+        return parentOf(workspaceRoot, fileType, content, cancelToken).thenCompose(parent -> {
+            if (parent.kind() != Kind.FILE || cancelToken.get()) {
+                chain.add(new Level(content, parent.kind() == Kind.SAME_FILE ? Kind.SAME_FILE : Kind.NONE));
+                return CompletableFuture.completedFuture(chain);
+            }
+            if (seen.contains(DiskCache.hash(parent.content()))) {
+                LOG.warn("Inheritance cycle in " + workspaceRoot + ", resolving the hierarchy up to where it repeats");
+                chain.add(new Level(content, Kind.NONE));
+                return CompletableFuture.completedFuture(chain);
+            }
+            chain.add(new Level(content, Kind.FILE));
+            return discover(workspaceRoot, fileType, parent.content(), chain, seen, cancelToken);
+        });
+    }
+
+    private CompletableFuture<Parent> parentOf(String workspaceRoot, String fileType, String content, AtomicBoolean cancelToken) {
+        return parents.computeIfAbsent(DiskCache.hash(workspaceRoot, fileType, content), key -> {
+            executor.execute(() -> prefetchDeclaredParent(workspaceRoot, fileType, content, cancelToken));
+            return CompletableFuture.supplyAsync(() -> {
+                if (cancelToken.get()) {
+                    return Parent.NONE;
+                }
+                try {
+                    return findParent(workspaceRoot, fileType, content);
+                } catch (IOException e) {
+                    LOG.warn("Failed to resolve the base class, continuing without it", e);
+                    return Parent.NONE;
+                }
+            }, executor);
+        });
+    }
+
+    private Parent findParent(String workspaceRoot, String fileType, String content) throws IOException {
+        String className = CodeAnalyzerService.extractClassName(fileType, content);
+        String baseClassName = ApiService.extractBaseClass(content).getBaseClass();
+        LOG.debug("Base class name: " + baseClassName);
+
+        if (baseClassName == null || "N/A".equals(baseClassName) || baseClassName.equals(className)) {
+            return Parent.NONE;
+        }
+        if (Pattern.compile("class\\s+" + Pattern.quote(baseClassName) + "\\b").matcher(content).find()) {
+            return Parent.SAME_FILE;
+        }
+        String baseContent = locator.locate(workspaceRoot, baseClassName, fileType);
+        return baseContent == null || baseContent.isEmpty() ? Parent.NONE : new Parent(Kind.FILE, baseContent);
+    }
+
+    /**
+     * Starts on the next level before the server has answered for this one, using the base class the declaration
+     * names. Whatever it finds is only used if the server agrees, through the memo.
+     */
+    private void prefetchDeclaredParent(String workspaceRoot, String fileType, String content, AtomicBoolean cancelToken) {
+        String declared = declaredBaseClass(fileType, content);
+        if (declared == null || cancelToken.get()) {
+            return;
+        }
+        try {
+            String baseContent = locator.locate(workspaceRoot, declared, fileType);
+            if (baseContent != null && !baseContent.isEmpty()) {
+                parentOf(workspaceRoot, fileType, baseContent, cancelToken);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("Prefetch of " + declared + " failed", e);
+        }
+    }
+
+    private static @Nullable String declaredBaseClass(String fileType, String content) {
+        String regex;
+        switch (fileType) {
+            case "cs": regex = "\\bclass\\s+\\w+(?:<[^>{]*>)?\\s*:\\s*([A-Za-z_][\\w.]*)"; break;
+            case "py": regex = "^\\s*class\\s+\\w+\\s*\\(\\s*([A-Za-z_][\\w.]*)"; break;
+            default: regex = "\\bclass\\s+\\w+(?:<[^>{]*>)?\\s+extends\\s+([A-Za-z_][\\w.]*)";
+        }
+        Matcher matcher = Pattern.compile(regex, Pattern.MULTILINE).matcher(content);
+        if (!matcher.find()) {
+            return null;
+        }
+        String name = matcher.group(1);
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    private static String concatenate(String content, @Nullable String mergedParent) {
+        return mergedParent == null ? content : content + "\n\n" + mergedParent;
+    }
+}
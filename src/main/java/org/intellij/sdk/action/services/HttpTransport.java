@@ -0,0 +1,182 @@
+package org.intellij.sdk.action.services;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Single shared HTTP client used for every call to the Sentra backend.
+ * <p>
+ * The underlying {@link HttpClient} negotiates HTTP/2 when the server supports it, so concurrent requests are
+ * multiplexed over one connection, and otherwise keeps HTTP/1.1 connections alive in its pool.
+ * Connect, read and total timeouts come from {@link ApiConfig.TIMEOUTS}.
+ */
+public final class HttpTransport {
+    private static final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(ApiConfig.TIMEOUTS.CONNECT)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+
+    private HttpTransport() {
+    }
+
+    public static HttpResponse<byte[]> get(String url, String accessToken) throws IOException {
+        return send(newRequest(url, accessToken).GET().build());
+    }
+
+    public static HttpResponse<byte[]> post(String url, String accessToken, byte[] body) throws IOException {
+        return send(newRequest(url, accessToken).POST(HttpRequest.BodyPublishers.ofByteArray(body)).build());
+    }
+
+    /**
+     * Posts with an {@code Idempotency-Key} header, which stays the same when the request is retried. The body is
+     * sent chunk by chunk as {@link JsonCodec#write} produced it, gzip-compressed already if {@code gzip}, and the
+     * response body is kept in the buffers it arrived in, for {@link JsonCodec#read}. A gzip response is asked for
+     * with {@link ApiConfig.COMPRESSION} on, see {@link #isGzip}, and a Smile one with {@link ApiConfig.WIRE_FORMAT}
+     * on; the server answers in JSON if it does not speak Smile.
+     */
+    public static HttpResponse<List<ByteBuffer>> post(String url, String accessToken, List<byte[]> body, String contentType, boolean gzip, String idempotencyKey) throws IOException {
+        return await(postAsync(url, accessToken, body, contentType, gzip, idempotencyKey), URI.create(url), ApiConfig.TIMEOUTS.TOTAL);
+    }
+
+    /**
+     * Starts the same post without waiting for it. Cancelling the future aborts the request.
+     */
+    public static CompletableFuture<HttpResponse<List<ByteBuffer>>> postAsync(String url, String accessToken, List<byte[]> body, String contentType, boolean gzip, String idempotencyKey) {
+        HttpRequest.Builder builder = newRequest(url, accessToken)
+                .setHeader("Content-Type", contentType)
+                .header("Idempotency-Key", idempotencyKey)
+                .POST(HttpRequest.BodyPublishers.ofByteArrays(body));
+        if (ApiConfig.WIRE_FORMAT.SMILE) {
+            builder.header("Accept", JsonCodec.Format.SMILE.mediaType() + ", " + JsonCodec.Format.JSON.mediaType() + ";q=0.9");
+        }
+        if (gzip) {
+            builder.header("Content-Encoding", "gzip");
+        }
+        if (ApiConfig.COMPRESSION.ENABLED) {
+            builder.header("Accept-Encoding", "gzip");
+        }
+        return client.sendAsync(builder.build(), responseInfo -> new BufferListSubscriber());
+    }
+
+    /**
+     * Whether the response body is gzip-compressed. The client does not decompress bodies itself.
+     */
+    public static boolean isGzip(HttpResponse<?> response) {
+        return response.headers().firstValue("Content-Encoding").orElse("").trim().equalsIgnoreCase("gzip");
+    }
+
+    public static boolean isSuccess(int statusCode) {
+        return statusCode >= 200 && statusCode < 300;
+    }
+
+    /**
+     * The delay asked for by the {@code Retry-After} header, in seconds or as an HTTP date; zero if there is none.
+     */
+    public static Duration retryAfter(HttpResponse<?> response) {
+        String value = response.headers().firstValue("Retry-After").orElse("").trim();
+        if (value.isEmpty()) {
+            return Duration.ZERO;
+        }
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            // Not a number of seconds, so an HTTP date
+        }
+        try {
+            Duration delay = Duration.between(ZonedDateTime.now(), ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME));
+            return delay.isNegative() ? Duration.ZERO : delay;
+        } catch (DateTimeParseException e) {
+            return Duration.ZERO;
+        }
+    }
+
+    private static HttpRequest.Builder newRequest(String url, String accessToken) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(ApiConfig.TIMEOUTS.READ)
+                .header("Content-Type", "application/json");
+        if (accessToken != null) {
+            builder.header("Authorization", "Bearer " + accessToken);
+        }
+        return builder;
+    }
+
+    private static HttpResponse<byte[]> send(HttpRequest request) throws IOException {
+        return await(client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()), request.uri(), ApiConfig.TIMEOUTS.TOTAL);
+    }
+
+    /**
+     * Collects a response body as the buffers the client hands over, which it does not touch again, instead of
+     * copying them into one array the way {@link HttpResponse.BodyHandlers#ofByteArray()} does.
+     */
+    private static final class BufferListSubscriber implements HttpResponse.BodySubscriber<List<ByteBuffer>> {
+        private final CompletableFuture<List<ByteBuffer>> body = new CompletableFuture<>();
+        private final List<ByteBuffer> buffers = new ArrayList<>();
+
+        @Override
+        public CompletionStage<List<ByteBuffer>> getBody() {
+            return body;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> items) {
+            buffers.addAll(items);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            body.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            body.complete(buffers);
+        }
+    }
+
+    /**
+     * Waits up to {@code timeout} for a request started by {@link #postAsync}, and aborts it if it takes longer.
+     */
+    public static <T> T await(CompletableFuture<T> future, URI uri, Duration timeout) throws IOException {
+        try {
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Request to " + uri + " was interrupted");
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new HttpTimeoutException("Request to " + uri + " timed out after " + timeout.toMillis() + " ms");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Request to " + uri + " failed", cause);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.intellij.sdk.action.services;
+
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * {@link SourceModelProvider} for Java sources. Only loaded when the Java plugin is installed.
+ */
+public class JavaSourceModelProvider implements SourceModelProvider {
+
+    @Override
+    public boolean accepts(@NotNull PsiFile file) {
+        return file instanceof PsiJavaFile;
+    }
+
+    @Override
+    public @Nullable SourceModel build(@NotNull PsiFile file) {
+        PsiClass mainClass = findMainClass((PsiJavaFile) file);
+        return mainClass == null ? null : build(mainClass, new HashSet<>());
+    }
+
+    private static @Nullable SourceModel build(@Nullable PsiClass psiClass, Set<PsiClass> visited) {
+        // visited guards against inheritance cycles in code that does not compile
+        if (psiClass == null || !visited.add(psiClass) || !(psiClass.getContainingFile() instanceof PsiJavaFile javaFile)) {
+            return null;
+        }
+
+        String content = javaFile.getText();
+        List<String> imports = new ArrayList<>();
+        PsiImportList importList = javaFile.getImportList();
+        if (importList != null) {
+            for (PsiImportStatementBase statement : importList.getAllImportStatements()) {
+                imports.add(statement.getText());
+            }
+        }
+
+        List<SourceModel.Function> functions = new ArrayList<>();
+        collectFunctions(psiClass, functions);
+        functions.sort(Comparator.comparingInt(function -> function.span().start()));
+
+        return new SourceModel(
+                "java",
+                content,
+                Objects.requireNonNullElse(psiClass.getName(), ""),
+                classHeader(psiClass, content),
+                imports,
+                functions,
+                build(resolveBaseClass(psiClass), visited));
+    }
+
+    private static void collectFunctions(PsiClass psiClass, List<SourceModel.Function> functions) {
+        for (PsiMethod method : psiClass.getMethods()) {
+            // Constructors and abstract methods have nothing to test on their own
+            if (method.isConstructor() || method.getBody() == null) {
+                continue;
+            }
+            TextRange range = method.getTextRange();
+            functions.add(new SourceModel.Function(method.getName(), new FunctionSpan(range.getStartOffset(), range.getEndOffset())));
+        }
+        for (PsiClass innerClass : psiClass.getInnerClasses()) {
+            collectFunctions(innerClass, functions);
+        }
+    }
+
+    /**
+     * The declaration of the class up to and including its opening brace, annotations included, javadoc left out.
+     */
+    private static String classHeader(PsiClass psiClass, String content) {
+        PsiElement lBrace = psiClass.getLBrace();
+        PsiModifierList modifiers = psiClass.getModifierList();
+        int start = modifiers != null ? modifiers.getTextRange().getStartOffset() : psiClass.getTextRange().getStartOffset();
+        int end = lBrace != null ? lBrace.getTextRange().getEndOffset() : psiClass.getTextRange().getEndOffset();
+        return content.substring(start, end);
+    }
+
+    /**
+     * The superclass when its source is part of the project; library classes and {@code java.lang.Object} are left out.
+     */
+    private static @Nullable PsiClass resolveBaseClass(PsiClass psiClass) {
+        PsiClass superClass = psiClass.getSuperClass();
+        if (superClass == null
+                || superClass instanceof PsiCompiledElement
+                || "java.lang.Object".equals(superClass.getQualifiedName())) {
+            return null;
+        }
+        return superClass;
+    }
+
+    private static @Nullable PsiClass findMainClass(PsiJavaFile file) {
+        PsiClass[] classes = file.getClasses();
+        if (classes.length == 0) {
+            return null;
+        }
+        String fileName = CodeAnalyzerService.getFileNameWithoutExtension(file.getName());
+        for (PsiClass psiClass : classes) {
+            if (fileName.equals(psiClass.getName())) {
+                return psiClass;
+            }
+        }
+        return classes[0];
+    }
+}
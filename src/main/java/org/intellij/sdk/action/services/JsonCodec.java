@@ -0,0 +1,176 @@
+package org.intellij.sdk.action.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * JSON (de)serialization of request payloads, responses and cache entries, and its binary form Smile for the
+ * backend calls that negotiate it, see {@link Format}.
+ * <p>
+ * An {@link ObjectReader} is built once per response type and format and kept, as is the {@link ObjectWriter}, so
+ * no call looks up or builds serializers again. Payloads are written straight into a list of fixed-size chunks that
+ * the HTTP client sends as they are, and responses are parsed straight from the buffers the client received them in;
+ * neither is ever joined into one array.
+ */
+public final class JsonCodec {
+    private static final int CHUNK = 16 * 1024;
+
+    /**
+     * Encoding of a request or response body.
+     * <p>
+     * Smile is Jackson's binary JSON: strings are written as length-prefixed UTF-8 without escaping, and repeated
+     * field names as back references, so source code and generated tests are cheaper to write, to parse and to send.
+     */
+    public enum Format {
+        JSON("application/json", new ObjectMapper()),
+        SMILE("application/x-jackson-smile", new SmileMapper());
+
+        private final String mediaType;
+        private final ObjectMapper mapper;
+        private final ObjectWriter writer;
+        private final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+
+        Format(String mediaType, ObjectMapper mapper) {
+            this.mediaType = mediaType;
+            this.mapper = mapper;
+            this.writer = mapper.writer();
+        }
+
+        public String mediaType() {
+            return mediaType;
+        }
+
+        /**
+         * The format of a body with the {@code Content-Type} {@code contentType}, JSON unless it names Smile.
+         */
+        public static Format of(@Nullable String contentType) {
+            return contentType != null && contentType.trim().toLowerCase(Locale.ROOT).startsWith(SMILE.mediaType) ? SMILE : JSON;
+        }
+    }
+
+    private JsonCodec() {
+    }
+
+    public static ObjectReader reader(Class<?> type) {
+        return reader(Format.JSON, type);
+    }
+
+    public static ObjectReader reader(Format format, Class<?> type) {
+        return format.readers.computeIfAbsent(type, format.mapper::readerFor);
+    }
+
+    public static ObjectWriter writer() {
+        return Format.JSON.writer;
+    }
+
+    /**
+     * {@code value} as JSON, in chunks of at most 16 KB.
+     */
+    public static List<byte[]> write(Object value) throws IOException {
+        return write(Format.JSON, value);
+    }
+
+    public static List<byte[]> write(Format format, Object value) throws IOException {
+        ChunkOutputStream out = new ChunkOutputStream();
+        format.writer.writeValue(out, value);
+        return out.toChunks();
+    }
+
+    /**
+     * {@code body} gzip-compressed, in chunks of at most 16 KB.
+     */
+    public static List<byte[]> gzip(List<byte[]> body) throws IOException {
+        ChunkOutputStream out = new ChunkOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out, CHUNK)) {
+            for (byte[] chunk : body) {
+                gzip.write(chunk);
+            }
+        }
+        return out.toChunks();
+    }
+
+    public static int size(List<byte[]> body) {
+        int size = 0;
+        for (byte[] chunk : body) {
+            size += chunk.length;
+        }
+        return size;
+    }
+
+    public static <T> T read(List<ByteBuffer> body, Class<T> type) throws IOException {
+        return read(body, Format.JSON, false, type);
+    }
+
+    /**
+     * Parses {@code body}, decompressing it on the way if {@code gzip}.
+     */
+    public static <T> T read(List<ByteBuffer> body, Format format, boolean gzip, Class<T> type) throws IOException {
+        List<InputStream> parts = new ArrayList<>(body.size());
+        for (ByteBuffer buffer : body) {
+            parts.add(new ByteBufferBackedInputStream(buffer.duplicate()));
+        }
+        InputStream in = new SequenceInputStream(Collections.enumeration(parts));
+        return reader(format, type).readValue(gzip ? new GZIPInputStream(in, CHUNK) : in);
+    }
+
+    /**
+     * Collects what is written to it into chunks.
+     */
+    private static final class ChunkOutputStream extends OutputStream {
+        private final List<byte[]> chunks = new ArrayList<>();
+        private byte[] current = new byte[CHUNK];
+        private int used;
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int off, int len) {
+            while (len > 0) {
+                if (used == current.length) {
+                    chunks.add(current);
+                    current = new byte[CHUNK];
+                    used = 0;
+                }
+                int count = Math.min(len, current.length - used);
+                System.arraycopy(buffer, off, current, used, count);
+                used += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+        List<byte[]> toChunks() {
+            if (used > 0) {
+                byte[] last = new byte[used];
+                System.arraycopy(current, 0, last, 0, used);
+                chunks.add(last);
+            }
+            return chunks;
+        }
+    }
+}
@@ -0,0 +1,617 @@
+package org.intellij.sdk.action.services;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Flattens a Java or C# class and its base class into one class without the {@code merge_class} round trip.
+ * <p>
+ * The members of the base class that the class does not declare itself are copied to the end of the class body:
+ * fields and properties by name, methods by name and number of parameters, nested types by name. Constructors of the
+ * base class are left out. Imports of the base class that the class lacks are added to its imports. Declarations are
+ * found with the {@link FunctionExtractor} lexer, so comments, strings and nested blocks never confuse the merge.
+ * <p>
+ * Returns null when the text does not contain a class to merge, and the caller falls back to the server.
+ */
+public final class LocalClassMerger {
+    private static final Set<String> MODIFIERS = Set.of(
+            "public", "protected", "private", "internal", "static", "final", "abstract", "virtual", "override",
+            "sealed", "readonly", "volatile", "transient", "synchronized", "native", "default", "new", "extern",
+            "async", "unsafe", "partial", "const", "required", "strictfp");
+    private static final Set<String> TYPE_KEYWORDS = Set.of("class", "interface", "enum", "record", "struct");
+    private static final Pattern IMPORT = Pattern.compile("^[ \\t]*(?:import|using)\\s+(?:static\\s+)?[\\w.*]+\\s*;[ \\t]*$", Pattern.MULTILINE);
+    private static final Pattern JAVA_PACKAGE = Pattern.compile("^[ \\t]*package\\s+[\\w.]+\\s*;[ \\t]*$", Pattern.MULTILINE);
+
+    private LocalClassMerger() {
+    }
+
+    public static boolean supports(String fileType) {
+        return "java".equals(fileType) || "cs".equals(fileType);
+    }
+
+    /**
+     * {@code content} with the members of {@code mergedParent} inlined into its class. Without a parent, the base
+     * class declared in the same file is inlined instead, along with its own base classes from that file.
+     */
+    public static @Nullable String merge(String fileType, String content, @Nullable String mergedParent) {
+        if (!supports(fileType)) {
+            return null;
+        }
+        List<ClassDeclaration> classes = new Scanner(fileType, content).classes();
+        return mergedParent == null
+                ? mergeSameFile(fileType, content, classes)
+                : mergeParent(fileType, content, classes, mergedParent);
+    }
+
+    private static @Nullable String mergeParent(String fileType, String content, List<ClassDeclaration> classes, String mergedParent) {
+        ClassDeclaration child = primary(classes, null);
+        if (child == null) {
+            return null;
+        }
+        List<ClassDeclaration> parentClasses = new Scanner(fileType, mergedParent).classes();
+        ClassDeclaration parent = primary(parentClasses, child.baseName());
+        if (parent == null) {
+            return null;
+        }
+
+        Scanner childScanner = new Scanner(fileType, content);
+        Scanner parentScanner = new Scanner(fileType, mergedParent);
+        String inherited = inheritedMembers(childScanner.members(child), parentScanner.members(parent), parent.name());
+        String merged = insertBeforeClose(content, child, inherited);
+        return mergeImports(merged, mergedParent);
+    }
+
+    private static @Nullable String mergeSameFile(String fileType, String content, List<ClassDeclaration> classes) {
+        Map<String, ClassDeclaration> byName = new HashMap<>();
+        for (ClassDeclaration declaration : classes) {
+            byName.putIfAbsent(declaration.name(), declaration);
+        }
+        ClassDeclaration child = classes.stream()
+                .filter(declaration -> declaration.baseName() != null && byName.containsKey(declaration.baseName()))
+                .min(Comparator.comparingInt(ClassDeclaration::depth))
+                .orElse(null);
+        if (child == null) {
+            return null;
+        }
+
+        Scanner scanner = new Scanner(fileType, content);
+        List<Member> own = new ArrayList<>(scanner.members(child));
+        StringBuilder inherited = new StringBuilder();
+        Set<String> visited = new HashSet<>(Set.of(child.name()));
+        ClassDeclaration base = byName.get(child.baseName());
+        while (base != null && visited.add(base.name())) {
+            List<Member> baseMembers = scanner.members(base);
+            inherited.append(inheritedMembers(own, baseMembers, base.name()));
+            own.addAll(baseMembers);
+            base = base.baseName() != null ? byName.get(base.baseName()) : null;
+        }
+        return insertBeforeClose(content, child, inherited.toString());
+    }
+
+    /**
+     * The base members that {@code own} does not already declare, under a comment naming the base class.
+     */
+    private static String inheritedMembers(List<Member> own, List<Member> baseMembers, String baseName) {
+        Set<String> declared = new HashSet<>();
+        for (Member member : own) {
+            declared.addAll(member.keys());
+        }
+        StringBuilder result = new StringBuilder();
+        for (Member member : baseMembers) {
+            // Constructors of the base class are not inherited
+            if (member.keys().isEmpty() || member.keys().get(0).startsWith("m:" + baseName + "/")) {
+                continue;
+            }
+            // A field declaring several variables is left out whole if the class hides any of them, copying it
+            // would declare the hidden one twice
+            if (member.keys().stream().anyMatch(declared::contains)) {
+                continue;
+            }
+            declared.addAll(member.keys());
+            result.append("\n\n").append(member.text());
+        }
+        if (result.length() == 0) {
+            return "";
+        }
+        return "\n\n" + indentOf(result) + "// Inherited from " + baseName + result.substring(1);
+    }
+
+    private static String insertBeforeClose(String content, ClassDeclaration target, String inherited) {
+        if (inherited.isEmpty()) {
+            return content;
+        }
+        int close = target.close();
+        int lineStart = close;
+        while (lineStart > 0 && (content.charAt(lineStart - 1) == ' ' || content.charAt(lineStart - 1) == '\t')) {
+            lineStart--;
+        }
+        // Before the line of the closing brace when it stands alone, right before it otherwise
+        int insertAt = lineStart > 0 && content.charAt(lineStart - 1) == '\n' ? lineStart - 1 : close;
+        if (insertAt < close && insertAt > 0 && content.charAt(insertAt - 1) == '\r') {
+            insertAt--;
+        }
+        return content.substring(0, insertAt) + inherited + (insertAt == close ? "\n" : "") + content.substring(insertAt);
+    }
+
+    private static String mergeImports(String content, String parent) {
+        Set<String> existing = new HashSet<>();
+        Matcher own = IMPORT.matcher(content);
+        int lastImportEnd = -1;
+        while (own.find()) {
+            existing.add(own.group().strip());
+            lastImportEnd = own.end();
+        }
+        StringBuilder missing = new StringBuilder();
+        Matcher inherited = IMPORT.matcher(parent);
+        while (inherited.find()) {
+            String line = inherited.group().strip();
+            if (existing.add(line)) {
+                missing.append('\n').append(line);
+            }
+        }
+        if (missing.length() == 0) {
+            return content;
+        }
+        if (lastImportEnd < 0) {
+            Matcher packageLine = JAVA_PACKAGE.matcher(content);
+            if (!packageLine.find()) {
+                return missing.substring(1) + "\n\n" + content;
+            }
+            lastImportEnd = packageLine.end();
+            missing.insert(0, '\n');
+        }
+        return content.substring(0, lastImportEnd) + missing + content.substring(lastImportEnd);
+    }
+
+    private static String indentOf(CharSequence text) {
+        int start = 0;
+        while (start < text.length() && (text.charAt(start) == '\n' || text.charAt(start) == '\r')) {
+            start++;
+        }
+        int end = start;
+        while (end < text.length() && (text.charAt(end) == ' ' || text.charAt(end) == '\t')) {
+            end++;
+        }
+        return text.subSequence(start, end).toString();
+    }
+
+    /**
+     * The outermost class, preferring one named {@code name} and then one with a base class.
+     */
+    private static @Nullable ClassDeclaration primary(List<ClassDeclaration> classes, @Nullable String name) {
+        if (name != null) {
+            for (ClassDeclaration declaration : classes) {
+                if (declaration.name().equals(name)) {
+                    return declaration;
+                }
+            }
+        }
+        int depth = classes.stream().mapToInt(ClassDeclaration::depth).min().orElse(-1);
+        ClassDeclaration first = null;
+        for (ClassDeclaration declaration : classes) {
+            if (declaration.depth() != depth) {
+                continue;
+            }
+            if (declaration.baseName() != null) {
+                return declaration;
+            }
+            if (first == null) {
+                first = declaration;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * @param open  offset of the brace opening the body
+     * @param close offset of the brace closing it
+     */
+    private record ClassDeclaration(String name, @Nullable String baseName, int depth, int open, int close) {
+    }
+
+    /**
+     * A member of a class body with its leading comments and annotations. {@code keys} identify what it declares,
+     * e.g. {@code m:run/2} or {@code f:count}, one per declarator of a field, and are empty for initializer blocks.
+     */
+    private record Member(List<String> keys, String text) {
+    }
+
+    private static final class Scanner extends FunctionExtractor.Lexer {
+        Scanner(String fileType, CharSequence content) {
+            super(fileType, content);
+        }
+
+        List<ClassDeclaration> classes() {
+            List<ClassDeclaration> classes = new ArrayList<>();
+            int depth = 0;
+            char previous = 0;
+            int p = 0;
+            while (p < n) {
+                char c = s.charAt(p);
+                if (Character.isWhitespace(c)) {
+                    p++;
+                    continue;
+                }
+                int skipped = skipNonCode(p, previous, false);
+                if (skipped >= 0) {
+                    p = Math.max(skipped, p + 1);
+                    continue;
+                }
+                if (isIdentifierStart(c)) {
+                    int end = identifierEnd(p);
+                    // Foo.class is a class literal, not a declaration
+                    if (previous != '.' && regionIs(p, end, "class")) {
+                        ClassDeclaration declaration = classDeclaration(end, depth);
+                        if (declaration != null) {
+                            classes.add(declaration);
+                            depth++;
+                            p = declaration.open() + 1;
+                            previous = '{';
+                            continue;
+                        }
+                    }
+                    previous = 'a';
+                    p = end;
+                    continue;
+                }
+                if (c == '{') {
+                    depth++;
+                } else if (c == '}') {
+                    depth--;
+                }
+                previous = c;
+                p++;
+            }
+            return classes;
+        }
+
+        /**
+         * Reads the class header after the {@code class} keyword at {@code pos}, up to its body.
+         */
+        private @Nullable ClassDeclaration classDeclaration(int pos, int depth) {
+            int p = skipWhitespace(pos);
+            if (p >= n || !isIdentifierStart(s.charAt(p))) {
+                return null;
+            }
+            int nameEnd = identifierEnd(p);
+            String name = s.subSequence(p, nameEnd).toString();
+            String baseName = null;
+            boolean expectBase = false;
+            // C# generic constraints, "where T : Bar", also use colons
+            boolean constraints = false;
+            int angleDepth = 0;
+            char previous = 'a';
+            p = nameEnd;
+            while (p < n) {
+                char c = s.charAt(p);
+                if (Character.isWhitespace(c)) {
+                    p++;
+                    continue;
+                }
+                int skipped = skipNonCode(p, previous, false);
+                if (skipped >= 0) {
+                    p = Math.max(skipped, p + 1);
+                    continue;
+                }
+                if (isIdentifierStart(c)) {
+                    int end = identifierEnd(p);
+                    if (angleDepth == 0) {
+                        if (java && regionIs(p, end, "extends")) {
+                            expectBase = true;
+                        } else if (expectBase) {
+                            // Qualified names: keep the last segment
+                            baseName = s.subSequence(p, end).toString();
+                            if (nextSignificant(end) != '.') {
+                                expectBase = false;
+                            }
+                        } else if (regionIs(p, end, "implements")) {
+                            expectBase = false;
+                        } else if (cs && regionIs(p, end, "where")) {
+                            constraints = true;
+                        }
+                    }
+                    previous = 'a';
+                    p = end;
+                    continue;
+                }
+                switch (c) {
+                    case '<':
+                        angleDepth++;
+                        break;
+                    case '>':
+                        angleDepth = Math.max(0, angleDepth - 1);
+                        break;
+                    case '(':
+                        // Primary constructor or base constructor arguments
+                        p = skipGroup(p, '(', ')');
+                        previous = ')';
+                        continue;
+                    case ':':
+                        if (cs && angleDepth == 0 && baseName == null && !constraints) {
+                            expectBase = true;
+                        }
+                        break;
+                    case '.':
+                        break;
+                    case '{':
+                        return new ClassDeclaration(name, baseName, depth, p, skipBlock(p) - 1);
+                    case ';':
+                    case '}':
+                    case '=':
+                    case ')':
+                        return null;
+                    default:
+                        if (angleDepth == 0) {
+                            expectBase = false;
+                        }
+                }
+                previous = c;
+                p++;
+            }
+            return null;
+        }
+
+        /**
+         * The members of {@code declaration}'s body, in order.
+         */
+        List<Member> members(ClassDeclaration declaration) {
+            List<Member> members = new ArrayList<>();
+            MemberHeader header = new MemberHeader();
+            int p = declaration.open() + 1;
+            int bodyEnd = declaration.close();
+            while (p < bodyEnd) {
+                char c = s.charAt(p);
+                if (Character.isWhitespace(c)) {
+                    p++;
+                    continue;
+                }
+                header.start(p);
+
+                int skipped = skipNonCode(p, header.previous, false);
+                if (skipped >= 0) {
+                    p = Math.max(skipped, p + 1);
+                    continue;
+                }
+                if (isIdentifierStart(c)) {
+                    p = header.identifier(p, identifierEnd(p));
+                    continue;
+                }
+
+                int end = -1;
+                switch (c) {
+                    case '@':
+                        header.annotation = true;
+                        break;
+                    case '<':
+                        header.angleDepth++;
+                        break;
+                    case '>':
+                        if (header.previous != '-') {
+                            header.angleDepth = Math.max(0, header.angleDepth - 1);
+                        }
+                        break;
+                    case ',':
+                        if (header.angleDepth == 0 && !header.sawParams && !header.typeKeyword) {
+                            // int count, total = 0;
+                            header.nextDeclarator();
+                        }
+                        break;
+                    case '(':
+                        if (!header.sawParams && !header.sawAssign && !header.annotation && header.lastIdentifier != null) {
+                            header.sawParams = true;
+                            header.methodName = header.lastIdentifier;
+                            header.arity = arity(p);
+                        }
+                        header.annotation = false;
+                        header.lastIdentifier = header.sawParams ? header.lastIdentifier : null;
+                        p = skipGroup(p, '(', ')');
+                        header.previous = ')';
+                        continue;
+                    case '[':
+                        p = skipGroup(p, '[', ']');
+                        header.previous = ']';
+                        continue;
+                    case '=':
+                        char next = p + 1 < n ? s.charAt(p + 1) : 0;
+                        if (next == '>') {
+                            header.sawArrow = true;
+                            p += 2;
+                            continue;
+                        }
+                        if (!header.sawAssign && !header.sawParams) {
+                            header.fieldName = header.lastIdentifier;
+                        }
+                        header.sawAssign = true;
+                        break;
+                    case '{':
+                        int blockEnd = skipBlock(p);
+                        if (header.sawAssign || header.sawArrow) {
+                            // Initializer or lambda body: the member goes on to its semicolon
+                            p = blockEnd;
+                            header.previous = '}';
+                            continue;
+                        }
+                        if (cs && nextSignificant(blockEnd) == '=') {
+                            // Auto-property with an initializer: { get; set; } = value;
+                            header.propertyName = header.lastIdentifier;
+                            p = blockEnd;
+                            header.previous = '}';
+                            continue;
+                        }
+                        if (!header.sawParams && !header.typeKeyword) {
+                            header.propertyName = header.lastIdentifier;
+                        }
+                        end = blockEnd;
+                        break;
+                    case ';':
+                        end = p + 1;
+                        break;
+                    default:
+                        break;
+                }
+                if (end >= 0) {
+                    members.add(new Member(header.keys(), memberText(header.start, end)));
+                    header = new MemberHeader();
+                    p = end;
+                    continue;
+                }
+                header.previous = c;
+                p++;
+            }
+            return members;
+        }
+
+        /**
+         * The number of parameters in the list opening at {@code open}.
+         */
+        private int arity(int open) {
+            int close = skipGroup(open, '(', ')') - 1;
+            int count = 0;
+            boolean empty = true;
+            int depth = 0;
+            char previous = '(';
+            for (int p = open + 1; p < close; p++) {
+                char c = s.charAt(p);
+                if (Character.isWhitespace(c)) {
+                    continue;
+                }
+                int skipped = skipNonCode(p, previous, false);
+                if (skipped >= 0) {
+                    if (!isCommentStart(p)) {
+                        empty = false;
+                    }
+                    p = Math.max(skipped, p + 1) - 1;
+                    continue;
+                }
+                empty = false;
+                if (c == '<' || c == '(' || c == '[' || c == '{') {
+                    depth++;
+                } else if ((c == '>' && previous != '-' && previous != '=') || c == ')' || c == ']' || c == '}') {
+                    depth = Math.max(0, depth - 1);
+                } else if (c == ',' && depth == 0) {
+                    count++;
+                }
+                previous = c;
+            }
+            return empty ? 0 : count + 1;
+        }
+
+        private int skipGroup(int open, char openChar, char closeChar) {
+            int depth = 0;
+            char previous = openChar;
+            int p = open;
+            while (p < n) {
+                char c = s.charAt(p);
+                int skipped = Character.isWhitespace(c) ? -1 : skipNonCode(p, previous, false);
+                if (skipped >= 0) {
+                    p = Math.max(skipped, p + 1);
+                    continue;
+                }
+                if (c == openChar) {
+                    depth++;
+                } else if (c == closeChar && --depth == 0) {
+                    return p + 1;
+                }
+                if (!Character.isWhitespace(c)) {
+                    previous = c;
+                }
+                p++;
+            }
+            return n;
+        }
+
+        private int skipWhitespace(int pos) {
+            int p = pos;
+            while (p < n && Character.isWhitespace(s.charAt(p))) {
+                p++;
+            }
+            return p;
+        }
+
+        /**
+         * From the start of the member's first line, so the member keeps its indentation.
+         */
+        private String memberText(int start, int end) {
+            int lineStart = start;
+            while (lineStart > 0 && (s.charAt(lineStart - 1) == ' ' || s.charAt(lineStart - 1) == '\t')) {
+                lineStart--;
+            }
+            return s.subSequence(lineStart, end).toString();
+        }
+
+        private final class MemberHeader {
+            int start = -1;
+            char previous = '{';
+            boolean annotation;
+            boolean typeKeyword;
+            @Nullable String typeName;
+            boolean sawParams;
+            boolean sawAssign;
+            boolean sawArrow;
+            int angleDepth;
+            int arity;
+            final List<String> declarators = new ArrayList<>();
+            @Nullable String lastIdentifier;
+            @Nullable String methodName;
+            @Nullable String fieldName;
+            @Nullable String propertyName;
+
+            void start(int pos) {
+                if (start < 0) {
+                    start = pos;
+                }
+            }
+
+            int identifier(int pos, int end) {
+                String word = s.subSequence(pos, end).toString();
+                if (annotation) {
+                    // Annotation name, possibly qualified; its arguments are skipped as a group
+                    annotation = nextSignificant(end) == '(' || nextSignificant(end) == '.';
+                    previous = 'a';
+                    return end;
+                }
+                if (!sawParams && !sawAssign && !typeKeyword && TYPE_KEYWORDS.contains(word)) {
+                    typeKeyword = true;
+                } else if (typeKeyword && typeName == null) {
+                    typeName = word;
+                }
+                if (!sawAssign) {
+                    lastIdentifier = word;
+                }
+                previous = 'a';
+                return end;
+            }
+
+            void nextDeclarator() {
+                String name = fieldName != null ? fieldName : lastIdentifier;
+                if (name != null) {
+                    declarators.add(name);
+                }
+                fieldName = null;
+                lastIdentifier = null;
+                sawAssign = false;
+            }
+
+            List<String> keys() {
+                if (typeKeyword && typeName != null) {
+                    return List.of("t:" + typeName);
+                }
+                if (sawParams && methodName != null && !MODIFIERS.contains(methodName)) {
+                    return List.of("m:" + methodName + "/" + arity);
+                }
+                String name = fieldName != null ? fieldName : propertyName != null ? propertyName : lastIdentifier;
+                List<String> keys = new ArrayList<>();
+                for (String declarator : declarators) {
+                    keys.add("f:" + declarator);
+                }
+                if (name != null && !MODIFIERS.contains(name)) {
+                    keys.add("f:" + name);
+                }
+                return keys;
+            }
+        }
+    }
+}
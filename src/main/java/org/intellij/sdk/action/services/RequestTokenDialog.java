@@ -10,9 +10,6 @@ import org.intellij.sdk.action.storages.UserTokenStorage;
 
 import javax.swing.*;
 import java.net.NetworkInterface;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.util.Enumeration;
@@ -69,16 +66,9 @@ public class RequestTokenDialog extends DialogWrapper {
             // Convert the payload to a JSON string
             String jsonPayload = toJson(payload);
 
-            // Create the HttpRequest
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(ApiConfig.API_ENDPOINTS.REGISTER_USER_TOKEN))
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(jsonPayload, StandardCharsets.UTF_8))
-                    .build();
-
-            // Send the request
-            HttpClient client = HttpClient.newHttpClient();
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            // Send the request through the shared transport
+            HttpResponse<byte[]> response = HttpTransport.post(
+                    ApiConfig.API_ENDPOINTS.REGISTER_USER_TOKEN, null, jsonPayload.getBytes(StandardCharsets.UTF_8));
 
             // Check the response status
             if (response.statusCode() == 201) {
@@ -88,7 +78,7 @@ public class RequestTokenDialog extends DialogWrapper {
                         "Invalid token. Please use another one or contact Sentra's Administrator for detail.",
                         dialogTitle,
                         Messages.getInformationIcon());
-                System.out.println("Error: " + response.statusCode() + " - " + response.body());
+                System.out.println("Error: " + response.statusCode() + " - " + new String(response.body(), StandardCharsets.UTF_8));
                 return false;
             }
         } catch (Exception e) {
@@ -0,0 +1,78 @@
+package org.intellij.sdk.action.services;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.http.HttpConnectTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * When and how long to wait before calling one backend endpoint again.
+ * <p>
+ * Only failures where the request most likely never reached the backend, or the backend said to come back, are
+ * retried: connect errors, 5xx and 429. The delay grows exponentially up to a cap and is drawn at random below it
+ * ("full jitter"), so the calls that failed together do not come back together. A {@code Retry-After} is the least
+ * it waits.
+ * <p>
+ * Retries come out of a budget: every call adds a fraction of a retry to it and every retry takes a whole one. While
+ * the backend keeps failing, the budget runs dry and calls fail after their first attempt instead of multiplying the
+ * load by the number of attempts.
+ */
+public final class RetryPolicy {
+    // Retries that can be spent at once, before any call has added to the budget
+    private static final double MAX_BUDGET = 10;
+
+    private final int maxAttempts;
+    private final Duration baseDelay;
+    private final Duration maxDelay;
+    private final double budgetRatio;
+    // Guarded by this
+    private double budget = MAX_BUDGET;
+
+    public RetryPolicy(int maxAttempts, Duration baseDelay, Duration maxDelay, double budgetRatio) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.budgetRatio = budgetRatio;
+    }
+
+    public static boolean isRetryable(int statusCode) {
+        return statusCode == 429 || statusCode >= 500;
+    }
+
+    public static boolean isRetryable(IOException e) {
+        return e instanceof ConnectException || e instanceof HttpConnectTimeoutException;
+    }
+
+    /**
+     * Records a first attempt, which adds to the retry budget.
+     */
+    public synchronized void onCall() {
+        budget = Math.min(MAX_BUDGET, budget + budgetRatio);
+    }
+
+    /**
+     * Whether the failed {@code attempt}, counted from 1, may be followed by another one. Takes the retry out of the
+     * budget if so.
+     */
+    public synchronized boolean tryRetry(int attempt) {
+        if (attempt >= maxAttempts || budget < 1) {
+            return false;
+        }
+        budget -= 1;
+        return true;
+    }
+
+    /**
+     * Time to wait after the failed {@code attempt}, counted from 1.
+     */
+    public Duration delay(int attempt, Duration retryAfter) {
+        long ceiling = Math.min(maxDelay.toMillis(), baseDelay.toMillis() << Math.min(attempt - 1, 20));
+        long jittered = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        return Duration.ofMillis(Math.max(jittered, retryAfter.toMillis()));
+    }
+
+    public synchronized double getBudget() {
+        return budget;
+    }
+}
@@ -0,0 +1,51 @@
+package org.intellij.sdk.action.services;
+
+import lombok.Getter;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * What unit test generation needs to know about a source file: its imports, the header of its main class, the
+ * functions to generate tests for and, when it can be resolved, the model of the base class.
+ * <p>
+ * Built from the IDE's parse tree by a {@link SourceModelProvider}; files without one go through the regex based
+ * {@link CodeAnalyzerService} instead.
+ */
+@Getter
+public class SourceModel {
+    private final String fileType;
+    private final String content;
+    private final String className;
+    private final String classHeader;
+    private final List<String> imports;
+    private final List<Function> functions;
+    @Nullable
+    private final SourceModel baseModel;
+
+    public SourceModel(String fileType,
+                       String content,
+                       String className,
+                       String classHeader,
+                       List<String> imports,
+                       List<Function> functions,
+                       @Nullable SourceModel baseModel) {
+        this.fileType = fileType;
+        this.content = content;
+        this.className = className;
+        this.classHeader = classHeader;
+        this.imports = List.copyOf(imports);
+        this.functions = List.copyOf(functions);
+        this.baseModel = baseModel;
+    }
+
+    public String getFunctionText(Function function) {
+        return content.substring(function.span().start(), function.span().end());
+    }
+
+    /**
+     * A function declared in {@link #getContent()}, with its name as the parser sees it.
+     */
+    public record Function(String name, FunctionSpan span) {
+    }
+}
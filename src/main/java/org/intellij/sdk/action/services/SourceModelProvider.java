@@ -0,0 +1,66 @@
+package org.intellij.sdk.action.services;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.extensions.ExtensionPointName;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.IndexNotReadyException;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Builds a {@link SourceModel} from the PSI tree the IDE already keeps for a file, so the file does not have to be
+ * parsed again with regexes. Implementations are registered for the languages whose plugins are installed, see
+ * {@code sentra-java.xml}.
+ */
+public interface SourceModelProvider {
+    ExtensionPointName<SourceModelProvider> EP_NAME =
+            ExtensionPointName.create("com.sentra.ut.generator.action.sourceModelProvider");
+
+    boolean accepts(@NotNull PsiFile file);
+
+    /**
+     * Called inside a read action, outside of dumb mode.
+     *
+     * @return the model, or {@code null} if the file has nothing this provider can describe
+     */
+    @Nullable
+    SourceModel build(@NotNull PsiFile file);
+
+    /**
+     * Model of {@code file} from the first provider that accepts it, or {@code null} if there is none, the indexes
+     * are not ready, or the file cannot be parsed. Callers then fall back to {@link CodeAnalyzerService}.
+     */
+    @Nullable
+    static SourceModel forFile(@Nullable Project project, @Nullable VirtualFile file) {
+        if (project == null || file == null) {
+            return null;
+        }
+
+        try {
+            return ReadAction.compute(() -> {
+                // Resolving base classes needs the indexes
+                if (project.isDisposed() || DumbService.isDumb(project) || !file.isValid()) {
+                    return null;
+                }
+                PsiFile psiFile = PsiManager.getInstance(project).findFile(file);
+                if (psiFile == null) {
+                    return null;
+                }
+                for (SourceModelProvider provider : EP_NAME.getExtensionList()) {
+                    if (provider.accepts(psiFile)) {
+                        return provider.build(psiFile);
+                    }
+                }
+                return null;
+            });
+        } catch (IndexNotReadyException e) {
+            Logger.getInstance(SourceModelProvider.class).info("Indexes not ready, falling back to text analysis");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,505 @@
+package org.intellij.sdk.action.services;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Persistent class declaration index of a workspace, for base class lookups where the IDE's indexes are not
+ * available: while the IDE is indexing and outside of a project.
+ * <p>
+ * The index is one file under the IDE system directory, memory-mapped for lookups. It holds every source file's
+ * path, modification time and size, and two sorted tables: {@code ClassName.ext} to declaring file and offset, and
+ * {@code /FileName.ext} to file. A warm start maps the file and answers lookups without touching the sources.
+ * A hit is checked against the file's current modification time and size; a stale hit or a miss triggers an
+ * incremental refresh, which walks the workspace in parallel (skipping {@code .git}, {@code node_modules},
+ * {@code build} and gitignored paths) and only re-reads files whose time or size changed.
+ */
+public final class SymbolIndex {
+    private static final Logger LOG = Logger.getInstance(SymbolIndex.class);
+    private static final Map<Path, SymbolIndex> instances = new ConcurrentHashMap<>();
+
+    private static final int MAGIC = 0x5359_4d31; // "SYM1"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final Set<String> SOURCE_EXTENSIONS = Set.of("java", "cs", "ts", "tsx", "py");
+    private static final Set<String> SKIPPED_DIRECTORIES = Set.of(".git", "node_modules", "build");
+    private static final Pattern CLASS_DECLARATION = Pattern.compile("\\bclass\\s+([A-Za-z_]\\w*)");
+    private static final long MAX_FILE_SIZE = 2 * 1024 * 1024;
+    // Misses for classes outside the workspace are common, do not walk it again for each of them
+    private static final long MIN_REFRESH_INTERVAL_MS = 10_000;
+    // Directory scans block on file IO, so they get threads of their own rather than the common pool's
+    private static final ExecutorService scanner = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+            "Sentra Symbol Index", Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())));
+
+    private final Path workspaceRoot;
+    private final Path directory;
+    private volatile Snapshot snapshot;
+    private long generation;
+    private long lastRefresh;
+
+    public static SymbolIndex forWorkspace(String workspaceRoot) {
+        Path root = Paths.get(workspaceRoot).toAbsolutePath().normalize();
+        return instances.computeIfAbsent(root, r -> new SymbolIndex(r,
+                Paths.get(PathManager.getSystemPath(), "sentra", "symbols", DiskCache.hash(r.toString()).substring(0, 16))));
+    }
+
+    public SymbolIndex(Path workspaceRoot, Path directory) {
+        this.workspaceRoot = workspaceRoot;
+        this.directory = directory;
+        this.snapshot = loadLatest();
+    }
+
+    /**
+     * A workspace file named {@code className.fileType}.
+     */
+    public Optional<Path> findFileNamed(String className, String fileType) {
+        return find("/" + className + "." + fileType);
+    }
+
+    /**
+     * A workspace {@code .fileType} file that declares {@code class className}, whatever its name.
+     */
+    public Optional<Path> findDeclaringFile(String className, String fileType) {
+        return find(className + "." + fileType);
+    }
+
+    private Optional<Path> find(String key) {
+        Snapshot current = snapshot;
+        Optional<Path> hit = current.lookup(key);
+        if (hit.isPresent() && current.isFresh(key)) {
+            return hit;
+        }
+        if (!refreshIfDue()) {
+            return hit;
+        }
+        return snapshot.lookup(key);
+    }
+
+    private synchronized boolean refreshIfDue() {
+        long now = System.currentTimeMillis();
+        if (now - lastRefresh < MIN_REFRESH_INTERVAL_MS) {
+            return false;
+        }
+        lastRefresh = now;
+        try {
+            refresh();
+            return true;
+        } catch (IOException e) {
+            LOG.warn("Failed to refresh the symbol index of " + workspaceRoot, e);
+            return false;
+        }
+    }
+
+    /**
+     * Brings the index up to date with the workspace and writes it to disk.
+     */
+    public synchronized void refresh() throws IOException {
+        long start = System.currentTimeMillis();
+        Snapshot previous = snapshot;
+        Map<String, FileState> previousFiles = previous.files();
+
+        ConcurrentHashMap<String, FileState> files = new ConcurrentHashMap<>();
+        new Scan(previousFiles, files).run(workspaceRoot);
+
+        List<Entry> entries = new ArrayList<>();
+        for (FileState file : files.values()) {
+            entries.add(new Entry("/" + Paths.get(file.path).getFileName(), file.path, -1));
+            for (int i = 0; i < file.classes.size(); i++) {
+                entries.add(new Entry(file.classes.get(i) + "." + extension(file.path), file.path, file.offsets.get(i)));
+            }
+        }
+
+        Path written = write(new ArrayList<>(files.values()), entries);
+        snapshot = Snapshot.map(written);
+        deleteOlderGenerations(written);
+        LOG.info("Symbol index of " + workspaceRoot + ": " + files.size() + " files, "
+                + (files.size() - countReused(previousFiles, files)) + " scanned, in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private static long countReused(Map<String, FileState> previous, Map<String, FileState> current) {
+        return current.values().stream().filter(file -> file == previous.get(file.path)).count();
+    }
+
+    /**
+     * One walk of the workspace: a task per directory on the scanner executor, each submitting its subdirectories
+     * before it ends, so no task ever waits for another. The walk is done when the last task ends.
+     */
+    private static final class Scan {
+        private final Map<String, FileState> previousFiles;
+        private final Map<String, FileState> files;
+        private final AtomicInteger pending = new AtomicInteger();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Scan(Map<String, FileState> previousFiles, Map<String, FileState> files) {
+            this.previousFiles = previousFiles;
+            this.files = files;
+        }
+
+        void run(Path root) throws IOException {
+            submit(root, List.of());
+            try {
+                done.join();
+            } catch (CompletionException e) {
+                throw new IOException("Failed to scan " + root, e.getCause());
+            }
+        }
+
+        private void submit(Path directory, List<GitIgnore> gitIgnores) {
+            pending.incrementAndGet();
+            try {
+                scanner.execute(() -> {
+                    try {
+                        scanDirectory(directory, gitIgnores);
+                    } catch (RuntimeException e) {
+                        done.completeExceptionally(e);
+                    } finally {
+                        if (pending.decrementAndGet() == 0) {
+                            done.complete(null);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                pending.decrementAndGet();
+                done.completeExceptionally(e);
+            }
+        }
+
+        private void scanDirectory(Path directory, List<GitIgnore> parentGitIgnores) {
+            List<GitIgnore> gitIgnores = parentGitIgnores;
+            GitIgnore gitIgnore = GitIgnore.load(directory);
+            if (gitIgnore != GitIgnore.EMPTY) {
+                gitIgnores = new ArrayList<>(parentGitIgnores);
+                gitIgnores.add(gitIgnore);
+            }
+
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+                for (Path child : children) {
+                    BasicFileAttributes attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    String name = child.getFileName().toString();
+                    if (attributes.isDirectory()) {
+                        if (!SKIPPED_DIRECTORIES.contains(name) && !GitIgnore.isIgnored(gitIgnores, child, true)) {
+                            submit(child, gitIgnores);
+                        }
+                    } else if (attributes.isRegularFile()
+                            && SOURCE_EXTENSIONS.contains(extension(name))
+                            && !GitIgnore.isIgnored(gitIgnores, child, false)) {
+                        scanFile(child, attributes);
+                    }
+                }
+            } catch (IOException e) {
+                LOG.debug("Skipping unreadable directory " + directory, e);
+            }
+        }
+
+        private void scanFile(Path file, BasicFileAttributes attributes) {
+            String path = file.toString();
+            long modified = attributes.lastModifiedTime().toMillis();
+            long size = attributes.size();
+            FileState previous = previousFiles.get(path);
+            if (previous != null && previous.modified == modified && previous.size == size) {
+                files.put(path, previous);
+                return;
+            }
+
+            List<String> classes = new ArrayList<>();
+            List<Integer> offsets = new ArrayList<>();
+            if (size <= MAX_FILE_SIZE) {
+                try {
+                    Matcher matcher = CLASS_DECLARATION.matcher(Files.readString(file, StandardCharsets.UTF_8));
+                    while (matcher.find()) {
+                        classes.add(matcher.group(1));
+                        offsets.add(matcher.start());
+                    }
+                } catch (IOException e) {
+                    // Binary or not UTF-8, still indexed by name
+                    LOG.debug("Failed to read " + file, e);
+                }
+            }
+            files.put(path, new FileState(path, modified, size, classes, offsets));
+        }
+    }
+
+    /*
+     * Layout, all integers big-endian:
+     *   int magic, int version, int fileCount, int entryCount
+     *   int[fileCount] file record positions, int[entryCount] entry record positions, entries sorted by key bytes
+     *   file record:  long modified, long size, int pathLength, byte[] path (UTF-8)
+     *   entry record: int fileIndex, int offset, int keyLength, byte[] key (UTF-8)
+     */
+    private Path write(List<FileState> files, List<Entry> entries) throws IOException {
+        files.sort(Comparator.comparing(file -> file.path));
+        Map<String, Integer> fileIndexes = new HashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            fileIndexes.put(files.get(i).path, i);
+        }
+        // Ties in path order, so lookups return the same file on every run
+        entries.sort((a, b) -> {
+            int comparison = Arrays.compareUnsigned(a.key(), b.key());
+            return comparison != 0 ? comparison : a.path().compareTo(b.path());
+        });
+        List<byte[]> keys = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            keys.add(entry.key());
+        }
+
+        List<byte[]> paths = new ArrayList<>(files.size());
+        int size = HEADER_BYTES + 4 * files.size() + 4 * entries.size();
+        for (FileState file : files) {
+            byte[] path = file.path.getBytes(StandardCharsets.UTF_8);
+            paths.add(path);
+            size += 20 + path.length;
+        }
+        for (byte[] key : keys) {
+            size += 12 + key.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(files.size()).putInt(entries.size());
+        int position = HEADER_BYTES + 4 * files.size() + 4 * entries.size();
+        for (byte[] path : paths) {
+            buffer.putInt(position);
+            position += 20 + path.length;
+        }
+        for (byte[] key : keys) {
+            buffer.putInt(position);
+            position += 12 + key.length;
+        }
+        for (int i = 0; i < files.size(); i++) {
+            buffer.putLong(files.get(i).modified).putLong(files.get(i).size).putInt(paths.get(i).length).put(paths.get(i));
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            buffer.putInt(fileIndexes.get(entry.path)).putInt(entry.offset).putInt(keys.get(i).length).put(keys.get(i));
+        }
+        buffer.flip();
+
+        // A new file per generation: the current one may still be mapped, which blocks replacing it on Windows
+        Files.createDirectories(directory);
+        generation = Math.max(generation, System.currentTimeMillis());
+        Path target = directory.resolve(generation++ + ".idx");
+        Path temp = Files.createTempFile(directory, "symbols", ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        return Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Snapshot loadLatest() {
+        try (Stream<Path> stream = Files.list(directory)) {
+            Optional<Path> latest = stream
+                    .filter(path -> path.getFileName().toString().endsWith(".idx"))
+                    .max(Comparator.comparingLong(SymbolIndex::generationOf));
+            if (latest.isPresent()) {
+                generation = generationOf(latest.get()) + 1;
+                return Snapshot.map(latest.get());
+            }
+        } catch (NoSuchFileException e) {
+            // First run for this workspace
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Ignoring unreadable symbol index in " + directory, e);
+        }
+        return Snapshot.EMPTY;
+    }
+
+    private void deleteOlderGenerations(Path current) {
+        try (Stream<Path> stream = Files.list(directory)) {
+            stream.filter(path -> !path.equals(current) && path.getFileName().toString().endsWith(".idx"))
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException e) {
+                            // Still mapped, removed on a later refresh
+                        }
+                    });
+        } catch (IOException e) {
+            LOG.debug("Failed to clean up " + directory, e);
+        }
+    }
+
+    private static long generationOf(Path path) {
+        String name = path.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - ".idx".length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String extension(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot >= 0 ? fileName.substring(dot + 1) : "";
+    }
+
+    private static final class FileState {
+        final String path;
+        final long modified;
+        final long size;
+        final List<String> classes;
+        final List<Integer> offsets;
+
+        FileState(String path, long modified, long size, List<String> classes, List<Integer> offsets) {
+            this.path = path;
+            this.modified = modified;
+            this.size = size;
+            this.classes = classes;
+            this.offsets = offsets;
+        }
+    }
+
+    private record Entry(byte[] key, String path, int offset) {
+        Entry(String key, String path, int offset) {
+            this(key.getBytes(StandardCharsets.UTF_8), path, offset);
+        }
+    }
+
+    /**
+     * Read-only view of one index file. Only absolute reads are used, so lookups can run concurrently.
+     */
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).putInt(0).putInt(0).flip());
+
+        private final ByteBuffer buffer;
+        private final int fileCount;
+        private final int entryCount;
+
+        private Snapshot(ByteBuffer buffer) {
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IllegalStateException("Not a symbol index of version " + VERSION);
+            }
+            this.buffer = buffer;
+            this.fileCount = buffer.getInt(8);
+            this.entryCount = buffer.getInt(12);
+        }
+
+        static Snapshot map(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return new Snapshot(mapped);
+            }
+        }
+
+        Optional<Path> lookup(String key) {
+            int entry = firstEntry(key.getBytes(StandardCharsets.UTF_8));
+            return entry < 0 ? Optional.empty() : Optional.of(Paths.get(filePath(entryFile(entry))));
+        }
+
+        /**
+         * Whether the file behind {@code key}'s first entry still has the indexed time and size.
+         */
+        boolean isFresh(String key) {
+            int entry = firstEntry(key.getBytes(StandardCharsets.UTF_8));
+            if (entry < 0) {
+                return false;
+            }
+            int file = entryFile(entry);
+            int record = buffer.getInt(HEADER_BYTES + 4 * file);
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(Paths.get(filePath(file)), BasicFileAttributes.class);
+                return attributes.lastModifiedTime().toMillis() == buffer.getLong(record)
+                        && attributes.size() == buffer.getLong(record + 8);
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Every file of this snapshot; unchanged files are carried over to the next one without being read.
+         */
+        Map<String, FileState> files() {
+            List<List<String>> classes = new ArrayList<>(fileCount);
+            List<List<Integer>> offsets = new ArrayList<>(fileCount);
+            for (int i = 0; i < fileCount; i++) {
+                classes.add(new ArrayList<>());
+                offsets.add(new ArrayList<>());
+            }
+            for (int entry = 0; entry < entryCount; entry++) {
+                int position = entryPosition(entry);
+                int offset = buffer.getInt(position + 4);
+                if (offset >= 0) {
+                    String key = readString(position + 8);
+                    int file = buffer.getInt(position);
+                    classes.get(file).add(key.substring(0, key.lastIndexOf('.')));
+                    offsets.get(file).add(offset);
+                }
+            }
+
+            Map<String, FileState> files = new HashMap<>(fileCount * 2);
+            for (int i = 0; i < fileCount; i++) {
+                int record = buffer.getInt(HEADER_BYTES + 4 * i);
+                String path = readString(record + 16);
+                files.put(path, new FileState(path, buffer.getLong(record), buffer.getLong(record + 8), classes.get(i), offsets.get(i)));
+            }
+            return files;
+        }
+
+        private int firstEntry(byte[] key) {
+            int low = 0;
+            int high = entryCount - 1;
+            int found = -1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int comparison = compareKey(entryPosition(middle) + 8, key);
+                if (comparison < 0) {
+                    low = middle + 1;
+                } else {
+                    if (comparison == 0) {
+                        found = middle;
+                    }
+                    high = middle - 1;
+                }
+            }
+            return found;
+        }
+
+        private int compareKey(int position, byte[] key) {
+            int length = buffer.getInt(position);
+            int common = Math.min(length, key.length);
+            for (int i = 0; i < common; i++) {
+                int difference = Byte.toUnsignedInt(buffer.get(position + 4 + i)) - Byte.toUnsignedInt(key[i]);
+                if (difference != 0) {
+                    return difference;
+                }
+            }
+            return length - key.length;
+        }
+
+        private int entryPosition(int entry) {
+            return buffer.getInt(HEADER_BYTES + 4 * fileCount + 4 * entry);
+        }
+
+        private int entryFile(int entry) {
+            return buffer.getInt(entryPosition(entry));
+        }
+
+        private String filePath(int file) {
+            return readString(buffer.getInt(HEADER_BYTES + 4 * file) + 16);
+        }
+
+        private String readString(int position) {
+            byte[] bytes = new byte[buffer.getInt(position)];
+            buffer.get(position + 4, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
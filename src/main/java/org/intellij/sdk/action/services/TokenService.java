@@ -1,22 +1,31 @@
 package org.intellij.sdk.action.services;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.ui.Messages;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import org.intellij.sdk.action.storages.UserTokenStorage;
+import com.intellij.openapi.application.Application;
 import com.intellij.openapi.application.ApplicationManager;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URI;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.io.InterruptedIOException;
+import java.util.Base64;
 import java.util.Map;
+import java.util.concurrent.*;
 
 public class TokenService {
     private static final Logger LOG = Logger.getInstance(RequestTokenDialog.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    // Refresh this long before the token expires so in-flight requests never carry a stale token
+    private static final long REFRESH_MARGIN_MS = 60_000;
+
+    private static final Object refreshLock = new Object();
+    private static CompletableFuture<String> inFlightRefresh;
+    private static ScheduledFuture<?> scheduledRefresh;
+    // Set once the application is shutting down, no refresh is scheduled after that
+    private static boolean stopped;
 
     public static boolean checkForToken() {
         String extensionId = "sentra.sentra-unit-test-generator";  // Placeholder for extension ID
@@ -47,6 +56,11 @@ public class TokenService {
         dialog.show();
     }
 
+    /**
+     * Makes sure an access token will be available for the action's requests without blocking the action thread.
+     * A token that is still inside its lifetime is used as is; otherwise a refresh is started in the background
+     * and the first request waits for it through {@link #getValidAccessToken()}.
+     */
     public static boolean generateAccessToken(String title) {
         UserTokenStorage tokenStorage = ApplicationManager.getApplication().getService(UserTokenStorage.class);
         String storedUserToken = tokenStorage.getUserToken();
@@ -59,69 +73,179 @@ public class TokenService {
             return false;
         }
 
-        String accessToken = tokenStorage.getAccessToken();
-        if (accessToken != null && checkToken(accessToken)) {
-            return true;
+        if (!hasUsableAccessToken(tokenStorage)) {
+            refreshAccessTokenAsync();
         }
-        tokenStorage.setAccessToken(null);
+        return true;
+    }
 
-        // Fetch new token using storedUserToken
-        accessToken = getNewAccessToken(storedUserToken);
-        if (accessToken != null) {
-            tokenStorage.setAccessToken(accessToken);
-            return true;
+    /**
+     * Returns an access token that has not expired yet, waiting for a refresh when needed.
+     */
+    public static String getValidAccessToken() throws IOException {
+        UserTokenStorage tokenStorage = getStorage();
+        if (tokenStorage == null) {
+            return null;
         }
-        Messages.showMessageDialog(
-                "Your token is invalid. Please enter a valid token.",
-                title,
-                Messages.getInformationIcon());
-        tokenStorage.setUserToken(null);
-        return false;
+        if (hasUsableAccessToken(tokenStorage)) {
+            return tokenStorage.getAccessToken();
+        }
+        return awaitRefresh(refreshAccessTokenAsync());
     }
 
-    private static boolean checkToken(String accessToken) {
-        try {
-            URL url = URI.create(ApiConfig.API_ENDPOINTS.CHECK_ACCESS_TOKEN).toURL();
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setRequestProperty("Authorization", "Bearer " + accessToken);
-
-            int responseCode = connection.getResponseCode();
-            // HTTP 200 OK
-            return responseCode == HttpURLConnection.HTTP_OK;
-        } catch (Exception e) {
-            LOG.error("Failed to check token", e);
-            return false;
+    /**
+     * Called after the server answered 401 for {@code rejectedToken}. If another request already replaced that
+     * token, the new one is returned right away; otherwise a single refresh is shared by every caller.
+     */
+    public static String refreshAfterUnauthorized(String rejectedToken) throws IOException {
+        UserTokenStorage tokenStorage = getStorage();
+        if (tokenStorage == null) {
+            return null;
+        }
+
+        CompletableFuture<String> refresh;
+        synchronized (refreshLock) {
+            String current = tokenStorage.getAccessToken();
+            if (current != null && !current.equals(rejectedToken) && hasUsableAccessToken(tokenStorage)) {
+                return current;
+            }
+            if (inFlightRefresh == null) {
+                tokenStorage.setAccessToken(null);
+                tokenStorage.setAccessTokenExpiresAt(0);
+            }
+            refresh = refreshAccessTokenAsync();
+        }
+        return awaitRefresh(refresh);
+    }
+
+    /**
+     * Starts a refresh of the access token, or joins the one already running.
+     */
+    public static CompletableFuture<String> refreshAccessTokenAsync() {
+        synchronized (refreshLock) {
+            if (inFlightRefresh != null) {
+                return inFlightRefresh;
+            }
+            CompletableFuture<String> refresh = CompletableFuture.supplyAsync(TokenService::doRefresh, AppExecutorUtil.getAppExecutorService());
+            inFlightRefresh = refresh;
+            refresh.whenComplete((token, error) -> {
+                synchronized (refreshLock) {
+                    if (inFlightRefresh == refresh) {
+                        inFlightRefresh = null;
+                    }
+                }
+            });
+            return refresh;
         }
     }
 
-    private static String getNewAccessToken(String userToken) {
+    private static String doRefresh() {
+        UserTokenStorage tokenStorage = getStorage();
+        String userToken = tokenStorage != null ? tokenStorage.getUserToken() : null;
+        if (userToken == null || userToken.isEmpty()) {
+            throw new CompletionException(new IOException("No token found. Please enter one."));
+        }
+
+        String accessToken;
         try {
-            URL url = URI.create(ApiConfig.API_ENDPOINTS.GENERATE_USER_TOKEN).toURL();
-            HttpURLConnection connection = createConnection(url);
+            accessToken = ApiService.fetchAccessToken(userToken);
+        } catch (IOException e) {
+            LOG.warn("Failed to get new access token", e);
+            throw new CompletionException(e);
+        }
 
-            String jsonInputString = "{\"token\":\"" + userToken + "\"}";
-            try (OutputStream os = connection.getOutputStream()) {
-                byte[] input = jsonInputString.getBytes(StandardCharsets.UTF_8);
-                os.write(input, 0, input.length);
+        if (accessToken == null) {
+            // The server rejected the user token itself
+            tokenStorage.setAccessToken(null);
+            tokenStorage.setAccessTokenExpiresAt(0);
+            tokenStorage.setUserToken(null);
+            ApplicationManager.getApplication().invokeLater(() -> Messages.showMessageDialog(
+                    "Your token is invalid. Please enter a valid token.",
+                    "Sentra",
+                    Messages.getInformationIcon()));
+            throw new CompletionException(new IOException("Your token is invalid. Please enter a valid token."));
+        }
+
+        long expiresAt = resolveExpiry(accessToken);
+        tokenStorage.setAccessToken(accessToken);
+        tokenStorage.setAccessTokenExpiresAt(expiresAt);
+        scheduleRefresh(expiresAt);
+        return accessToken;
+    }
+
+    private static String awaitRefresh(CompletableFuture<String> refresh) throws IOException {
+        try {
+            return refresh.get(ApiConfig.TIMEOUTS.TOTAL.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while refreshing the access token");
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out while refreshing the access token", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
             }
+            throw new IOException("Failed to refresh the access token", cause);
+        }
+    }
 
-            int responseCode = connection.getResponseCode();
-            if (responseCode == HttpURLConnection.HTTP_CREATED) {  // HTTP 200 OK
-                try (BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
-                    StringBuilder response = new StringBuilder();
-                    String responseLine;
-                    while ((responseLine = br.readLine()) != null) {
-                        response.append(responseLine.trim());
-                    }
-                    return response.toString();  // Returning the response text as the access token
+    private static boolean hasUsableAccessToken(UserTokenStorage tokenStorage) {
+        String accessToken = tokenStorage.getAccessToken();
+        if (accessToken == null || accessToken.isEmpty()) {
+            return false;
+        }
+
+        long expiresAt = tokenStorage.getAccessTokenExpiresAt();
+        if (expiresAt == 0) {
+            // Token stored before expiry tracking existed
+            expiresAt = resolveExpiry(accessToken);
+            tokenStorage.setAccessTokenExpiresAt(expiresAt);
+            scheduleRefresh(expiresAt);
+        }
+        return System.currentTimeMillis() < expiresAt - REFRESH_MARGIN_MS;
+    }
+
+    /**
+     * Reads the {@code exp} claim when the access token is a JWT, otherwise assumes the configured lifetime.
+     */
+    private static long resolveExpiry(String accessToken) {
+        String[] parts = accessToken.split("\\.");
+        if (parts.length == 3) {
+            try {
+                JsonNode claims = objectMapper.readTree(Base64.getUrlDecoder().decode(parts[1]));
+                if (claims.hasNonNull("exp")) {
+                    return claims.get("exp").asLong() * 1000;
                 }
+            } catch (IllegalArgumentException | IOException e) {
+                LOG.debug("Access token is not a readable JWT", e);
+            }
+        }
+        return System.currentTimeMillis() + ApiConfig.TIMEOUTS.ACCESS_TOKEN_TTL.toMillis();
+    }
+
+    private static void scheduleRefresh(long expiresAt) {
+        long delay = expiresAt - REFRESH_MARGIN_MS - System.currentTimeMillis();
+        synchronized (refreshLock) {
+            if (scheduledRefresh != null) {
+                scheduledRefresh.cancel(false);
+            }
+            scheduledRefresh = delay > 0 && !stopped
+                    ? AppExecutorUtil.getAppScheduledExecutorService().schedule(TokenService::refreshAccessTokenAsync, delay, TimeUnit.MILLISECONDS)
+                    : null;
+        }
+    }
+
+    /**
+     * Cancels the scheduled refresh for good, called when {@link UserTokenStorage} is disposed with the application.
+     */
+    public static void stopRefresh() {
+        synchronized (refreshLock) {
+            stopped = true;
+            if (scheduledRefresh != null) {
+                scheduledRefresh.cancel(false);
+                scheduledRefresh = null;
             }
-            return null;
-        } catch (Exception e) {
-            LOG.error("Failed to get new access token", e);
-            return null;
         }
     }
 
@@ -150,19 +274,14 @@ public class TokenService {
     public static void clearStoredUserToken() {
         UserTokenStorage tokenStorage = ApplicationManager.getApplication().getService(UserTokenStorage.class);
         tokenStorage.setAccessToken(null);
+        tokenStorage.setAccessTokenExpiresAt(0);
         tokenStorage.setUserToken(null);
+        scheduleRefresh(0);
     }
 
-    private static HttpURLConnection createConnection(URL url) {
-        try {
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setDoOutput(true);
-            connection.setConnectTimeout(5000);
-            return connection;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+    private static UserTokenStorage getStorage() {
+        // No application when running headless against a local backend, requests then go out unauthenticated
+        Application application = ApplicationManager.getApplication();
+        return application != null ? application.getService(UserTokenStorage.class) : null;
     }
 }
@@ -0,0 +1,67 @@
+package org.intellij.sdk.action.services;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small in-memory LRU in front of a {@link DiskCache}, for responses that are looked up many times per run.
+ * Disk hits are promoted to memory; writes go to both levels.
+ * <p>
+ * Memory holds responses serialized, and every hit is a new instance: the DTOs are mutable, and a caller changing
+ * the one it got must not change what later callers get.
+ */
+public final class TwoLevelCache {
+    private static final Logger LOG = Logger.getInstance(TwoLevelCache.class);
+
+    private final DiskCache disk;
+    private final Map<String, byte[]> memory;
+
+    public TwoLevelCache(DiskCache disk, int memoryEntries) {
+        this.disk = disk;
+        this.memory = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > memoryEntries;
+            }
+        });
+    }
+
+    public <T> T get(String key, Class<T> type) {
+        byte[] value = memory.get(key);
+        if (value != null) {
+            try {
+                return JsonCodec.reader(type).readValue(value);
+            } catch (IOException e) {
+                LOG.warn("Dropping unreadable in-memory cache entry " + key, e);
+                memory.remove(key);
+            }
+        }
+
+        T stored = disk.get(key, type);
+        if (stored != null) {
+            remember(key, stored);
+        }
+        return stored;
+    }
+
+    public void put(String key, Object value) {
+        remember(key, value);
+        disk.put(key, value);
+    }
+
+    public DiskCache getDisk() {
+        return disk;
+    }
+
+    private void remember(String key, Object value) {
+        try {
+            memory.put(key, JsonCodec.writer().writeValueAsBytes(value));
+        } catch (IOException e) {
+            LOG.warn("Failed to keep cache entry " + key + " in memory", e);
+        }
+    }
+}
@@ -2,25 +2,50 @@ package org.intellij.sdk.action.services;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import lombok.Getter;
 import lombok.Setter;
 import org.intellij.sdk.action.dto.ApiResponse;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Getter
 @Setter
 public class UnitTestGenerator {
     private String projectBaseDir = "";
+    // Send per-function requests concurrently instead of one after another
+    private boolean parallel = true;
+    private int maxConcurrency = ApiConfig.GENERATION.CONCURRENCY;
+    // Ignore cached responses for this run and refresh them from the server
+    private boolean bypassCache = false;
+    // Framework of the whole document when the caller already knows it, detected from the code otherwise
+    private CodeAnalyzerService.Framework framework;
+    // Scheduled run this generator works for; without one, calls go out on a pool of maxConcurrency threads
+    private GenerationScheduler.Job job;
+    // Send small functions together in batched requests, see BatchPlanner
+    private boolean batching = ApiConfig.BATCHING.ENABLED;
+    // Functions whose test could not be generated or saved in this generator's runs, reported when they end
+    private final Queue<String> failedFunctions = new ConcurrentLinkedQueue<>();
     private final Logger LOG = Logger.getInstance(RequestTokenDialog.class);
+    // No class context to wait for: every function is generated from its own file
+    private static final CompletableFuture<String> NO_CLASS_CONTEXT = CompletableFuture.completedFuture(null);
 
     public void generateAndSaveUnitTestForAllCategories(
             String codeContent,
@@ -28,6 +53,16 @@ public class UnitTestGenerator {
             String fileName,
             AtomicBoolean cancelToken,
             ProgressIndicator progressIndicator) {
+        generateAndSaveUnitTestForAllCategories(codeContent, null, functionName, fileName, cancelToken, progressIndicator);
+    }
+
+    public void generateAndSaveUnitTestForAllCategories(
+            String codeContent,
+            @Nullable String classContext,
+            String functionName,
+            String fileName,
+            AtomicBoolean cancelToken,
+            ProgressIndicator progressIndicator) {
         String key = UUID.randomUUID().toString();
         StringBuilder generatedTests = new StringBuilder();
 
@@ -37,6 +72,7 @@ public class UnitTestGenerator {
         String newTestNames = generateAndSaveUnitTest(
                 key,
                 codeContent,
+                classContext,
                 functionName,
                 fileName,
                 generatedTests.toString(),
@@ -51,21 +87,49 @@ public class UnitTestGenerator {
             String fileName,
             String generatedTests,
             ProgressIndicator progressIndicator) {
+        return generateAndSaveUnitTest(key, codeContent, null, functionName, fileName, generatedTests, progressIndicator);
+    }
+
+    public String generateAndSaveUnitTest(
+            String key,
+            String codeContent,
+            @Nullable String classContext,
+            String functionName,
+            String fileName,
+            String generatedTests,
+            ProgressIndicator progressIndicator) {
         String logMessage = "Generating unit tests for: " + functionName;
         System.out.println(logMessage);
         progressIndicator.setText(logMessage);
         // Call to genUnitTest (this should be implemented as per your requirements)
         ApiResponse apiResult = null;
         try {
-            apiResult = ApiService.genUnitTest(key, functionName, codeContent, getAccessToken(), generatedTests);
+            apiResult = ApiService.genUnitTest(key, functionName, codeContent, classContext, getAccessToken(), generatedTests, bypassCache);
         } catch (IOException ex) {
-            LOG.error("Failed to generate unit test", ex);
+            // Retries are behind ApiService already, what gets here is reported at the end of the run
+            LOG.warn("Failed to generate unit test for " + functionName, ex);
+            failedFunctions.add(functionName);
+            return "";
+        }
+
+        if (!saveUnitTest(functionName, fileName, apiResult)) {
+            failedFunctions.add(functionName);
             return "";
         }
+        return apiResult.getGeneratedTests();
+    }
 
+    /**
+     * Writes a generated unit test into the output folder, returning whether it could.
+     */
+    private boolean saveUnitTest(String functionName, String fileName, ApiResponse apiResult) {
         String outputFolder = initializeOutputFolder();
         if (outputFolder == null) {
-            return "";
+            return false;
+        }
+        if (apiResult.getUnitTest() == null) {
+            LOG.warn("The backend returned no unit test for " + functionName);
+            return false;
         }
 
         Path fileBaseName = Paths.get(fileName).getFileName();
@@ -78,13 +142,12 @@ public class UnitTestGenerator {
 
             // Write the result to a file
             Path filePath = fileFolder.resolve(functionName + "." + extension);
-            Files.writeString(filePath, apiResult.getUnitTest());
+            apiResult.getUnitTest().writeTo(filePath);
         } catch (IOException e) {
             LOG.error("Failed to write unit test result to files", e);
-            return "";
+            return false;
         }
-
-        return apiResult.getGeneratedTests();
+        return true;
     }
 
     public String initializeOutputFolder() {
@@ -102,8 +165,8 @@ public class UnitTestGenerator {
         return outputFolder;
     }
 
-    public String getAccessToken() {
-        return TokenService.getStoredAccessToken();
+    public String getAccessToken() throws IOException {
+        return TokenService.getValidAccessToken();
     }
 
     // Method to extract file extension (similar to `path.extname` in JavaScript)
@@ -122,6 +185,23 @@ public class UnitTestGenerator {
             String functionsCode,
             AtomicBoolean cancelToken,
             ProgressIndicator progressIndicator
+    ) {
+        doGenUnitTest(fileName, fileType, fileContent, functionsCode, NO_CLASS_CONTEXT, cancelToken, progressIndicator);
+    }
+
+    /**
+     * Generates unit tests while {@code classContext}, the class merged with its base classes, is still being resolved.
+     * Functions that only use members of their own file are sent at once, the others wait for the context and send it
+     * along.
+     */
+    public void doGenUnitTest(
+            String fileName,
+            String fileType,
+            String fileContent,
+            String functionsCode,
+            CompletableFuture<String> classContext,
+            AtomicBoolean cancelToken,
+            ProgressIndicator progressIndicator
     ) {
         System.out.println("File content: " + fileContent);
 
@@ -129,57 +209,302 @@ public class UnitTestGenerator {
             List<String> imports = CodeAnalyzerService.extractDependencies(fileType, fileContent);
             String classNameFull = CodeAnalyzerService.extractClassNameCodeLine(fileType, fileContent);
             String className = CodeAnalyzerService.extractClassName(fileType, classNameFull);
-            List<String> functions = CodeAnalyzerService.extractCodeFunctions(fileType, className, functionsCode);
+            List<FunctionSpan> spans = CodeAnalyzerService.extractFunctionSpans(fileType, className, functionsCode);
+            List<String> functions = new ArrayList<>(spans.size());
+            for (FunctionSpan span : spans) {
+                functions.add(functionsCode.substring(span.start(), span.end()));
+            }
+            CompletableFuture<String> inheritedContext = inheritedContext(classContext, fileContent);
+            List<FunctionSpan> fileSpans = functionsCode.equals(fileContent)
+                    ? spans
+                    : CodeAnalyzerService.extractFunctionSpans(fileType, className, fileContent);
+            Set<String> declaredNames = classContext == NO_CLASS_CONTEXT
+                    ? Set.of()
+                    : CodeAnalyzerService.extractDeclaredNames(fileContent, fileSpans);
 
             boolean isReact;
             if ("tsx".equals(fileType) || "ts".equals(fileType)) {
-                isReact = "React".equals(CodeAnalyzerService.detectFramework(functionsCode));
+                CodeAnalyzerService.Framework detected = framework != null ? framework : CodeAnalyzerService.detectFramework(functionsCode);
+                isReact = detected == CodeAnalyzerService.Framework.React;
             } else {
                 isReact = false;
             }
 
-            // Using CompletableFuture to simulate async functionality
-            CompletableFuture.runAsync(() -> {
-                try {
-                    if (functions == null || functions.isEmpty()) {
-                        // Cannot split functions, generate for the whole file
-                        generateAndSaveUnitTestForAllCategories(fileContent, className, fileName, cancelToken, progressIndicator);
-                    } else {
-                        int totalMatches = functions.size();
-                        List<String> functionNames = new java.util.ArrayList<>();
-
-                        for (int i = 0; i < totalMatches; i++) {
-                            String func = functions.get(i);
-                            String codeContent = imports + "\n" + classNameFull + "\n    " + func + "\n}";
-
-                            String functionName = CodeAnalyzerService.extractFunctionName(fileType, func, isReact);
-                            if ("py".equals(fileType)) {
-                                codeContent = imports + "\n" + func;
-                            }
+            if (functions.isEmpty()) {
+                // Cannot split functions, generate for the whole file
+                String context = inheritedContext.join();
+                runScheduled(() -> generateAndSaveUnitTestForAllCategories(fileContent, context, className, fileName, cancelToken, progressIndicator));
+            } else {
+                // Names are resolved up front, in source order, so overload suffixes do not depend on completion order
+                List<String> functionNames = new ArrayList<>();
+                List<String> codeContents = new ArrayList<>();
+                List<Boolean> needsContext = new ArrayList<>();
 
-                            if (functionName == null || functionName.isEmpty()) {
-                                continue;
-                            }
+                ContextSlicer slicer = new ContextSlicer(fileType, fileContent, fileSpans, imports);
+                for (String func : functions) {
+                    String functionName = CodeAnalyzerService.extractFunctionName(fileType, func, isReact);
+                    if (functionName == null || functionName.isEmpty()) {
+                        continue;
+                    }
+                    String codeContent = slicer.codeContent(classNameFull, func);
 
-                            functionName = CodeAnalyzerService.getUniqueFunctionName(functionNames, functionName);
-                            functionNames.add(functionName);
+                    functionName = CodeAnalyzerService.getUniqueFunctionName(functionNames, functionName);
+                    functionNames.add(functionName);
+                    codeContents.add(codeContent);
+                    needsContext.add(classContext != NO_CLASS_CONTEXT && CodeAnalyzerService.usesInheritedMembers(fileType, func, declaredNames));
+                }
 
-                            generateAndSaveUnitTestForAllCategories(codeContent, functionName, fileName, cancelToken, progressIndicator);
+                generateForFunctions(fileType, functionNames, codeContents, needsContext, inheritedContext, fileName, cancelToken, progressIndicator);
+            }
 
-                            // Simulate progress reporting
-                            double progress = ((double) (i + 1) / totalMatches) * 100;
-                            System.out.printf("%d%% completed%n", (int) progress);
-                        }
-                    }
+            System.out.println("Generating unit tests finished!");
+            ApiService.getUnitTestCache().logStats();
+        } catch (Exception e) {
+            System.err.println("Error during unit test generation: " + e.getMessage());
+        }
+    }
 
-                    System.out.println("Generating unit tests finished!");
+    /**
+     * Same as {@link #doGenUnitTest(String, String, String, String, AtomicBoolean, ProgressIndicator)}, with imports,
+     * class header and function boundaries taken from the IDE's parse tree instead of being re-extracted from text.
+     */
+    public void doGenUnitTest(
+            String fileName,
+            SourceModel model,
+            AtomicBoolean cancelToken,
+            ProgressIndicator progressIndicator
+    ) {
+        doGenUnitTest(fileName, model, NO_CLASS_CONTEXT, cancelToken, progressIndicator);
+    }
 
-                } catch (Exception e) {
-                    System.err.println("Error during unit test generation: " + e.getMessage());
+    /**
+     * Same as {@link #doGenUnitTest(String, String, String, String, CompletableFuture, AtomicBoolean, ProgressIndicator)}
+     * for a file the IDE has parsed.
+     */
+    public void doGenUnitTest(
+            String fileName,
+            SourceModel model,
+            CompletableFuture<String> classContext,
+            AtomicBoolean cancelToken,
+            ProgressIndicator progressIndicator
+    ) {
+        try {
+            CompletableFuture<String> inheritedContext = inheritedContext(classContext, model.getContent());
+            if (model.getFunctions().isEmpty()) {
+                String context = inheritedContext.join();
+                runScheduled(() -> generateAndSaveUnitTestForAllCategories(model.getContent(), context, model.getClassName(), fileName, cancelToken, progressIndicator));
+            } else {
+                List<String> functionNames = new ArrayList<>();
+                List<String> codeContents = new ArrayList<>();
+                List<Boolean> needsContext = new ArrayList<>();
+                Set<String> declaredNames = classContext == NO_CLASS_CONTEXT || model.getBaseModel() == null
+                        ? Set.of()
+                        : CodeAnalyzerService.extractDeclaredNames(model.getContent(), model.getFunctions().stream().map(SourceModel.Function::span).toList());
+
+                ContextSlicer slicer = new ContextSlicer(model.getFileType(), model.getContent(),
+                        model.getFunctions().stream().map(SourceModel.Function::span).toList(), model.getImports());
+                for (SourceModel.Function function : model.getFunctions()) {
+                    String functionText = model.getFunctionText(function);
+                    String codeContent = slicer.codeContent(model.getClassHeader(), functionText);
+                    String functionName = CodeAnalyzerService.getUniqueFunctionName(functionNames, function.name());
+                    functionNames.add(functionName);
+                    codeContents.add(codeContent);
+                    // The IDE found no base class, so nothing can be inherited
+                    needsContext.add(!declaredNames.isEmpty() && CodeAnalyzerService.usesInheritedMembers(model.getFileType(), functionText, declaredNames));
                 }
-            }).join(); // Wait for async task to finish
+
+                generateForFunctions(model.getFileType(), functionNames, codeContents, needsContext, inheritedContext, fileName, cancelToken, progressIndicator);
+            }
+
+            System.out.println("Generating unit tests finished!");
+            ApiService.getUnitTestCache().logStats();
         } catch (Exception e) {
             System.err.println("Error during unit test generation: " + e.getMessage());
         }
     }
+
+    /**
+     * The merged class when it adds anything to {@code content}, null otherwise or if it could not be resolved.
+     */
+    private CompletableFuture<String> inheritedContext(CompletableFuture<String> classContext, String content) {
+        return classContext.handle((merged, e) -> {
+            if (e != null) {
+                LOG.warn("Failed to resolve the class hierarchy, generating without it", e);
+                return null;
+            }
+            return merged == null || merged.equals(content) ? null : merged;
+        });
+    }
+
+    private void generateForFunctions(
+            String fileType,
+            List<String> functionNames,
+            List<String> codeContents,
+            List<Boolean> needsContext,
+            CompletableFuture<String> classContext,
+            String fileName,
+            AtomicBoolean cancelToken,
+            ProgressIndicator progressIndicator) {
+        progressIndicator.setIndeterminate(false);
+        if (job != null || batching || (parallel && maxConcurrency > 1 && functionNames.size() > 1)) {
+            generateInParallel(fileType, functionNames, codeContents, needsContext, classContext, fileName, cancelToken, progressIndicator);
+        } else {
+            // Functions without inherited members first, the others once the hierarchy is resolved
+            int done = 0;
+            for (boolean withContext : new boolean[]{false, true}) {
+                String context = withContext ? classContext.join() : null;
+                ContextSlicer slicer = contextSlicer(fileType, context);
+                for (int i = 0; i < functionNames.size(); i++) {
+                    if (needsContext.get(i) != withContext) {
+                        continue;
+                    }
+                    String sliced = slicer != null ? slicer.slice(List.of(codeContents.get(i))) : context;
+                    generateAndSaveUnitTestForAllCategories(codeContents.get(i), sliced, functionNames.get(i), fileName, cancelToken, progressIndicator);
+                    reportProgress(++done, functionNames.size(), progressIndicator);
+                }
+            }
+        }
+    }
+
+    private void generateInParallel(
+            String fileType,
+            List<String> functionNames,
+            List<String> codeContents,
+            List<Boolean> needsContext,
+            CompletableFuture<String> classContext,
+            String fileName,
+            AtomicBoolean cancelToken,
+            ProgressIndicator progressIndicator) {
+        int total = functionNames.size();
+        AtomicInteger completed = new AtomicInteger();
+        ExecutorService ownExecutor = job == null
+                ? AppExecutorUtil.createBoundedApplicationPoolExecutor("Sentra Unit Test Generation", parallel ? maxConcurrency : 1)
+                : null;
+        Executor executor = job != null ? job.executor() : ownExecutor;
+        try {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (boolean withContext : new boolean[]{false, true}) {
+                List<Integer> indices = new ArrayList<>();
+                for (int i = 0; i < total; i++) {
+                    if (needsContext.get(i) == withContext) {
+                        indices.add(i);
+                    }
+                }
+                if (indices.isEmpty()) {
+                    continue;
+                }
+                // Functions that need the class context are queued once it is resolved, the others right away
+                CompletableFuture<String> context = withContext ? classContext : NO_CLASS_CONTEXT;
+                futures.add(context.thenCompose(resolvedContext -> {
+                    ContextSlicer slicer = contextSlicer(fileType, resolvedContext);
+                    List<CompletableFuture<Void>> tasks = new ArrayList<>();
+                    for (List<Integer> group : group(indices, codeContents, slicer != null ? null : resolvedContext)) {
+                        // Each task writes its own files as soon as its response arrives
+                        tasks.add(CompletableFuture.runAsync(() -> {
+                            if (cancelToken.get() || progressIndicator.isCanceled()) {
+                                return;
+                            }
+                            List<String> names = group.stream().map(functionNames::get).toList();
+                            try {
+                                List<String> codes = group.stream().map(codeContents::get).toList();
+                                String groupContext = slicer != null ? slicer.slice(codes) : resolvedContext;
+                                if (group.size() == 1) {
+                                    generateAndSaveUnitTestForAllCategories(codes.get(0), groupContext, names.get(0), fileName, cancelToken, progressIndicator);
+                                } else {
+                                    generateAndSaveBatch(names, codes, groupContext, fileName, progressIndicator);
+                                }
+                            } catch (Exception e) {
+                                LOG.warn("Failed to generate unit tests for " + names, e);
+                                failedFunctions.addAll(names);
+                            } finally {
+                                reportProgress(completed.addAndGet(group.size()), total, progressIndicator);
+                            }
+                        }, executor));
+                    }
+                    return CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0]));
+                }));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } finally {
+            if (ownExecutor != null) {
+                ownExecutor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * A slicer for {@code classContext} when it is sent inline, null when it is sent by reference, since a whole
+     * context is uploaded only once, or when slicing is off.
+     */
+    private static @Nullable ContextSlicer contextSlicer(String fileType, @Nullable String classContext) {
+        if (classContext == null || !ApiConfig.CONTEXT_SLICING.ENABLED || ApiService.getContextStore().shares(classContext)) {
+            return null;
+        }
+        return ContextSlicer.of(fileType, classContext);
+    }
+
+    /**
+     * The functions at {@code indices} grouped into the requests they are sent in: batches planned by
+     * {@link BatchPlanner} when batching, one request per function otherwise. A {@code classContext} sliced per batch
+     * is passed as null: it grows with the functions of the batch much like their own code does.
+     */
+    private List<List<Integer>> group(List<Integer> indices, List<String> codeContents, @Nullable String classContext) {
+        if (!batching || indices.size() < 2) {
+            return indices.stream().map(List::of).toList();
+        }
+        List<Integer> sizes = indices.stream().map(i -> codeContents.get(i).length()).toList();
+        // A context sent by reference adds next to nothing to the batch
+        int sharedBytes = classContext == null || ApiService.getContextStore().shares(classContext) ? 0 : classContext.length();
+        List<List<Integer>> groups = new ArrayList<>();
+        for (List<Integer> batch : BatchPlanner.plan(sizes, sharedBytes, ApiConfig.BATCHING.MAX_BYTES, ApiConfig.BATCHING.MAX_FUNCTIONS)) {
+            groups.add(batch.stream().map(indices::get).toList());
+        }
+        return groups;
+    }
+
+    /**
+     * Generates the unit tests of several functions in one batched request and saves each one as
+     * {@link #generateAndSaveUnitTest} would.
+     */
+    public void generateAndSaveBatch(
+            List<String> functionNames,
+            List<String> codeContents,
+            @Nullable String classContext,
+            String fileName,
+            ProgressIndicator progressIndicator) {
+        String logMessage = "Generating unit tests for: " + String.join(", ", functionNames);
+        System.out.println(logMessage);
+        progressIndicator.setText(logMessage);
+        Map<String, ApiResponse> results;
+        try {
+            results = ApiService.genUnitTestBatch(UUID.randomUUID().toString(), functionNames, codeContents, classContext, getAccessToken(), bypassCache);
+        } catch (IOException ex) {
+            LOG.warn("Failed to generate unit tests for " + functionNames, ex);
+            failedFunctions.addAll(functionNames);
+            return;
+        }
+        for (String functionName : functionNames) {
+            ApiResponse result = results.get(functionName);
+            if (result == null || !saveUnitTest(functionName, fileName, result)) {
+                failedFunctions.add(functionName);
+            }
+        }
+    }
+
+    /**
+     * Runs a single call in the job's turn, or right here without a job.
+     */
+    private void runScheduled(Runnable call) {
+        if (job == null) {
+            call.run();
+        } else {
+            CompletableFuture.runAsync(call, job.executor()).join();
+        }
+    }
+
+    private static void reportProgress(int done, int total, ProgressIndicator progressIndicator) {
+        double progress = (double) done / total;
+        progressIndicator.setFraction(progress);
+        System.out.printf("%d%% completed%n", (int) (progress * 100));
+    }
 }
@@ -1,23 +1,29 @@
 package org.intellij.sdk.action.storages;
 
+import com.intellij.openapi.Disposable;
 import com.intellij.openapi.components.PersistentStateComponent;
 import com.intellij.openapi.components.Service;
 import com.intellij.openapi.components.State;
 import com.intellij.openapi.components.Storage;
+import org.intellij.sdk.action.services.TokenService;
 
 @Service
 @State(
         name = "UserTokenStorage",
         storages = @Storage("userToken.xml")  // The token will be stored in a file named userToken.xml
 )
-public final class UserTokenStorage implements PersistentStateComponent<UserTokenStorage.State> {
+public final class UserTokenStorage implements PersistentStateComponent<UserTokenStorage.State>, Disposable {
 
+    // Volatile: the tokens are read and replaced from request and refresh threads. A new access token is stored
+    // before its expiry, so a reader at worst pairs it with the old expiry and refreshes once more than needed.
     public static class State {
-        public String userToken;
-        public String accessToken;
+        public volatile String userToken;
+        public volatile String accessToken;
+        // Epoch millis after which the access token must not be used, 0 when unknown
+        public volatile long accessTokenExpiresAt;
     }
 
-    private State myState = new State();
+    private volatile State myState = new State();
 
     public UserTokenStorage() {
         System.out.println("UserTokenStorage Initialized!");
@@ -43,6 +49,10 @@ public final class UserTokenStorage implements PersistentStateComponent<UserToke
         return myState.accessToken;
     }
 
+    public long getAccessTokenExpiresAt() {
+        return myState.accessTokenExpiresAt;
+    }
+
     // Set the token
     public void setUserToken(String token) {
         myState.userToken = token;
@@ -51,5 +61,15 @@ public final class UserTokenStorage implements PersistentStateComponent<UserToke
     public void setAccessToken(String token) {
         myState.accessToken = token;
     }
+
+    public void setAccessTokenExpiresAt(long expiresAt) {
+        myState.accessTokenExpiresAt = expiresAt;
+    }
+
+    @Override
+    public void dispose() {
+        // The scheduled refresh must not outlive the application
+        TokenService.stopRefresh();
+    }
 }
 